@@ -21,6 +21,8 @@ import mobac.exceptions.MapDownloadSkippedException;
 import mobac.gui.AtlasProgress;
 import mobac.gui.AtlasProgress.AtlasCreationController;
 import mobac.mapsources.AbstractMultiLayerMapSource;
+import mobac.mapsources.MapsforgeMapSource;
+import mobac.mapsources.TileRangeMapSource;
 import mobac.program.atlascreators.AtlasCreator;
 import mobac.program.atlascreators.tileprovider.DownloadedTileProvider;
 import mobac.program.atlascreators.tileprovider.FilteredMapSourceProvider;
@@ -50,9 +52,16 @@ import org.slf4j.LoggerFactory;
 import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
+import java.awt.Point;
 import java.awt.Toolkit;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class AtlasThread extends Thread
 		implements
@@ -61,6 +70,53 @@ public class AtlasThread extends Thread
 			MapSourceCallerThreadInfo {
 
 	private static final Logger LOG = LoggerFactory.getLogger(AtlasThread.class);
+
+	/**
+	 * Number of download errors after which the user is asked how to continue
+	 */
+	private static final int RETRY_ERROR_THRESHOLD = 50;
+
+	/**
+	 * Maximum time to wait for a download state change before the state is checked
+	 * again. The dispatcher marks a worker as inactive only after the job has been
+	 * reported finished, therefore the last job of a map is checked with the short
+	 * interval.
+	 */
+	private static final long DOWNLOAD_STATE_CHECK_INTERVAL = 500;
+	private static final long DOWNLOAD_FINISH_CHECK_INTERVAL = 5;
+
+	/**
+	 * Download the tiles of the next map while the current map is created (system
+	 * property <code>mobac.pipelinedmaps=true</code>)
+	 */
+	private static final boolean PIPELINED_MAP_CREATION = Boolean
+			.parseBoolean(System.getProperty("mobac.pipelinedmaps", "false"));
+
+	/**
+	 * Maximum size of the temporary tile archives of the current and the next map
+	 * in pipelined mode (system property <code>mobac.pipelinetempdisk</code> in
+	 * MiB)
+	 */
+	private static final long PIPELINE_TEMP_DISK_BUDGET = Long.getLong("mobac.pipelinetempdisk", 2048) << 20;
+
+	/**
+	 * Tile size assumed for the temp disk budget as long as the average size is
+	 * unknown. Larger than almost all encoded 256x256 tiles including the tar
+	 * header.
+	 */
+	private static final long DEFAULT_TILE_ARCHIVE_BYTES = 128 * 1024;
+
+	/**
+	 * Create each map while its tiles are downloaded, see
+	 * {@link StreamingTileProvider} (system property
+	 * <code>mobac.streamingmaps=true</code>). Replaces the pipelined mode. Only
+	 * the time until the map creation starts is reduced, the tiles are still
+	 * written to the temporary tile archive.
+	 */
+	private static final boolean STREAMING_MAP_CREATION = Boolean
+			.parseBoolean(System.getProperty("mobac.streamingmaps", "false"));
+
+
 	private static int threadNum = 0;
 	private File customAtlasDir = null;
 	private boolean quitMobacAfterAtlasCreation = false;
@@ -71,10 +127,17 @@ public class AtlasThread extends Thread
 	private AtlasCreator atlasCreator = null;
 	private final PauseResumeHandler pauseResumeHandler;
 	private int activeDownloads = 0;
-	private int jobsCompleted = 0;
-	private int jobsRetryError = 0;
-	private int jobsPermanentError = 0;
 	private int maxDownloadRetries = 1;
+	private final Lock downloadStateLock = new ReentrantLock();
+	private final Condition downloadStateChanged = downloadStateLock.newCondition();
+	private long downloadStateVersion = 0;
+	private MapDownload pendingDownload = null;
+	private volatile StreamingTileProvider streamingProvider = null;
+	/**
+	 * Average size of a tile in the temporary tile archives of the previous maps,
+	 * 0 as long as no map has been downloaded
+	 */
+	private long averageTileArchiveBytes = 0;
 
 	{
 		ImageIO.setUseCache(false);
@@ -120,6 +183,41 @@ public class AtlasThread extends Thread
 		return 0;
 	}
 
+	/**
+	 * Releases the resources of a map source that has been cloned for the atlas
+	 * creation, e.g. the map files referenced by a {@link MapsforgeMapSource}.
+	 */
+	private static void releaseMapSourceClone(MapSource mapSource) {
+		if (mapSource instanceof MapsforgeMapSource) {
+			((MapsforgeMapSource) mapSource).releaseClone();
+		} else if (mapSource instanceof AbstractMultiLayerMapSource) {
+			for (MapSource layerMapSource : (AbstractMultiLayerMapSource) mapSource) {
+				releaseMapSourceClone(layerMapSource);
+			}
+		}
+	}
+
+	/**
+	 * Enables or disables the block-wise read ahead of map sources that are able to
+	 * load whole tile ranges at once.
+	 */
+	private static void setTileReadAhead(MapInterface map, boolean enabled) {
+		MapSource mapSource = map.getMapSource();
+		if (!(mapSource instanceof TileRangeMapSource)) {
+			return;
+		}
+		TileRangeMapSource rangeMapSource = (TileRangeMapSource) mapSource;
+		if (!enabled) {
+			rangeMapSource.clearReadAheadArea();
+			return;
+		}
+		int tileSize = mapSource.getMapSpace().getTileSize();
+		Point min = map.getMinTileCoordinate();
+		Point max = map.getMaxTileCoordinate();
+		rangeMapSource.setReadAheadArea(map.getZoom(), min.x / tileSize, min.y / tileSize, max.x / tileSize,
+				max.y / tileSize);
+	}
+
 	private void testAtlas() throws AtlasTestException {
 		try {
 			for (LayerInterface layer : atlas) {
@@ -223,14 +321,24 @@ public class AtlasThread extends Thread
 
 		Settings s = Settings.getInstance();
 
+		List<MapInterface> maps = new ArrayList<>();
+		for (LayerInterface layer : atlas) {
+			for (MapInterface map : layer) {
+				maps.add(map);
+			}
+		}
+		int mapIndex = 0;
+
 		try (JobDispatcher downloadJobDispatcher = new JobDispatcher(this, s.downloadThreadCount, pauseResumeHandler,
 				atlasProgress)) {
 			this.downloadJobDispatcher = downloadJobDispatcher;
 			for (LayerInterface layer : atlas) {
 				atlasCreator.initLayerCreation(layer);
 				for (MapInterface map : layer) {
+					mapIndex++;
+					MapInterface nextMap = (mapIndex < maps.size()) ? maps.get(mapIndex) : null;
 					try {
-						while (!createMap(map)) {
+						while (!createMap(map, nextMap)) {
 						}
 					} catch (InterruptedException e) {
 						throw e; // User has aborted
@@ -268,10 +376,17 @@ public class AtlasThread extends Thread
 			if (downloadJobProducerThread != null) {
 				downloadJobProducerThread.cancel();
 			}
+			if (pendingDownload != null) {
+				cancelMapDownload(pendingDownload);
+				pendingDownload = null;
+			}
 			this.downloadJobDispatcher = null;
 			if (!atlasCreator.isAborted()) {
 				atlasCreator.finishAtlasCreation();
 			}
+			for (MapInterface map : maps) {
+				releaseMapSourceClone(map.getMapSource());
+			}
 			atlasProgress.atlasCreationFinished();
 		}
 
@@ -284,15 +399,97 @@ public class AtlasThread extends Thread
 	 * @throws Exception
 	 */
 	public boolean createMap(MapInterface map) throws Exception {
-		TarIndex tileIndex = null;
-		TarIndexedArchive tileArchive = null;
-
-		jobsCompleted = 0;
-		jobsRetryError = 0;
-		jobsPermanentError = 0;
+		return createMap(map, null);
+	}
 
-		atlasProgress.initMapDownload(map);
+	/**
+	 * @param nextMap
+	 *            the map that is created after <code>map</code> or
+	 *            <code>null</code>. In pipelined mode its tiles are downloaded
+	 *            while <code>map</code> is created.
+	 * @return true if map creation process was finished and false if something went
+	 *         wrong and the user decided to retry map download
+	 */
+	private boolean createMap(MapInterface map, MapInterface nextMap) throws Exception {
+		MapDownload download = null;
+		boolean tileReadAhead = false;
+		try {
+			TileProvider mapTileProvider;
+			atlasProgress.initMapDownload(map);
+			atlasProgress.setZoomLevel(map.getZoom());
+			download = takePendingDownload(map);
+			if (download == null) {
+				download = startMapDownload(map);
+			}
+			if (download != null) {
+				showMapDownloadProgress(download);
+			}
+			if (download != null && download.streamingProvider != null) {
+				LOG.debug("Starting to create atlas from tiles as they are downloaded");
+				mapTileProvider = download.streamingProvider;
+				streamingProvider = download.streamingProvider;
+			} else if (download != null) {
+				// For online maps we download the tiles first and then start creating the map
+				// if we are sure we got all tiles
+				if (!awaitMapDownload(download, true)) {
+					return false;
+				}
+				LOG.debug("Starting to create atlas from downloaded tiles");
+				mapTileProvider = new DownloadedTileProvider(download.tileIndex, map);
+			} else {
+				// We don't need to download anything. Everything is already stored locally
+				// therefore we can just use it
+				mapTileProvider = new FilteredMapSourceProvider(map, LoadMethod.DEFAULT);
+				setTileReadAhead(map, true);
+				tileReadAhead = true;
+			}
+			if (nextMap != null) {
+				prefetchMapDownload(nextMap, download);
+			}
+			try {
+				atlasCreator.initializeMap(map, mapTileProvider);
+				atlasCreator.createMap();
+			} catch (Exception e) {
+				if (download == null || download.stopReason == null) {
+					throw e;
+				}
+				// the user has stopped the map creation after download errors
+			}
+			if (download != null && download.streamingProvider != null) {
+				if (download.stopReason != null) {
+					throw download.stopReason;
+				}
+				// the map has already been created - missing tiles are only logged
+				awaitMapDownload(download, false);
+			}
+		} catch (Error e) {
+			LOG.error("Error in createMap: {}", e.getMessage(), e);
+			throw e;
+		} finally {
+			if (tileReadAhead) {
+				setTileReadAhead(map, false);
+			}
+			streamingProvider = null;
+			if (download != null) {
+				if (download.streamingProvider != null && download.tileIndex == null) {
+					// map creation has failed while the download was running
+					download.producerThread.cancel();
+					download.producerWatcher.interrupt();
+					downloadJobDispatcher.cancelOutstandingJobs();
+				}
+				download.deleteTiles();
+			}
+		}
+		return true;
+	}
 
+	/**
+	 * Prepares the map and starts the download of its tiles.
+	 *
+	 * @return the running download or <code>null</code> if the map source is file
+	 *         based and nothing has to be downloaded
+	 */
+	private MapDownload startMapDownload(MapInterface map) throws Exception {
 		if (map.getMapSource() instanceof InitializableMapSource) {
 			((InitializableMapSource) map.getMapSource()).initialize();
 		}
@@ -304,110 +501,312 @@ public class AtlasThread extends Thread
 		// Prepare the tile store directory
 		// ts.prepareTileStore(map.getMapSource());
 
+		int zoom = map.getZoom();
+
+		if (map.getMapSource() instanceof FileBasedMapSource) {
+			return null;
+		}
+
 		/***
 		 * In this section of code below, tiles for Atlas is being downloaded and saved
 		 * in the temporary layer tar file in the system temp directory.
 		 **/
-		int zoom = map.getZoom();
+		MapDownload download = new MapDownload(map, (int) map.calculateTilesToDownload());
+		if (!AtlasOutputFormat.TILESTORE.equals(atlas.getOutputFormat())) {
+			String tempSuffix = "MOBAC_" + atlas.getName() + "_" + zoom + "_";
+			download.tileArchiveFile = File.createTempFile(tempSuffix, ".tar", DirectoryManager.tempDir);
+			// If something goes wrong the temp file only persists until the VM exits
+			download.tileArchiveFile.deleteOnExit();
+			LOG.debug("Writing downloaded tiles to {}", download.tileArchiveFile.getPath());
+			if (STREAMING_MAP_CREATION) {
+				download.streamingProvider = new StreamingTileProvider(download.tileArchiveFile, download.tileCount,
+						map, new StreamingTileProvider.DownloadMonitor() {
+
+							public boolean isDownloadComplete() {
+								return isMapDownloadComplete(download);
+							}
+
+							public void checkDownloadErrors() throws IOException {
+								checkStreamingDownloadErrors(download);
+							}
+						});
+				download.tileArchive = download.streamingProvider.getTileArchive();
+			} else {
+				download.tileArchive = new TarIndexedArchive(download.tileArchiveFile, download.tileCount);
+			}
+		} else {
+			LOG.debug("Downloading to tile store only");
+		}
 
-		final int tileCount = (int) map.calculateTilesToDownload();
+		download.producerThread = new DownloadJobProducerThread(new MapDownloadListener(download),
+				downloadJobDispatcher, download.tileArchive, (DownloadableElement) map);
+		downloadJobProducerThread = download.producerThread;
+		download.producerWatcher = watchProducerThread(download.producerThread);
+		return download;
+	}
 
-		atlasProgress.setZoomLevel(zoom);
-		try {
-			TileProvider mapTileProvider;
-			if (!(map.getMapSource() instanceof FileBasedMapSource)) {
-				// For online maps we download the tiles first and then start creating the map
-				// if
-				// we are sure we got all tiles
-				if (!AtlasOutputFormat.TILESTORE.equals(atlas.getOutputFormat())) {
-					String tempSuffix = "MOBAC_" + atlas.getName() + "_" + zoom + "_";
-					File tileArchiveFile = File.createTempFile(tempSuffix, ".tar", DirectoryManager.tempDir);
-					// If something goes wrong the temp file only persists until the VM exits
-					tileArchiveFile.deleteOnExit();
-					LOG.debug("Writing downloaded tiles to {}", tileArchiveFile.getPath());
-					tileArchive = new TarIndexedArchive(tileArchiveFile, tileCount);
-				} else {
-					LOG.debug("Downloading to tile store only");
+	/**
+	 * Waits until all download jobs of the map have been processed and asks the
+	 * user how to continue in case of download errors.
+	 *
+	 * @param askOnErrors
+	 *            ask the user how to continue if there are too many download
+	 *            errors or if tiles are missing. Otherwise missing tiles are only
+	 *            logged.
+	 * @return false if the user decided to retry the map download
+	 */
+	private boolean awaitMapDownload(MapDownload download, boolean askOnErrors) throws Exception {
+		DownloadJobProducerThread producerThread = download.producerThread;
+		boolean failedMessageAnswered = !askOnErrors;
+
+		while (true) {
+			long stateVersion = getDownloadStateVersion();
+			boolean producerAlive = producerThread.isAlive();
+			boolean jobsWaiting = downloadJobDispatcher.getWaitingJobCount() > 0;
+			if (!producerAlive && !jobsWaiting && !downloadJobDispatcher.isAtLeastOneWorkerActive()) {
+				break;
+			}
+			if (!failedMessageAnswered && (download.jobsRetryError > RETRY_ERROR_THRESHOLD)
+					&& !atlasProgress.ignoreDownloadErrors()) {
+				pauseResumeHandler.pause();
+				String[] answers = new String[]{I18nUtils.localizedStringForKey("Continue"),
+						I18nUtils.localizedStringForKey("Retry"), I18nUtils.localizedStringForKey("Skip"),
+						I18nUtils.localizedStringForKey("Abort")};
+				int answer = JOptionPane.showOptionDialog(atlasProgress,
+						I18nUtils.localizedStringForKey("dlg_download_errors_todo_msg"),
+						I18nUtils.localizedStringForKey("dlg_download_errors_todo"), 0, JOptionPane.QUESTION_MESSAGE,
+						null, answers, answers[0]);
+				failedMessageAnswered = true;
+				switch (answer) {
+					case 0 : // Continue
+						pauseResumeHandler.resume();
+						break;
+					case 1 : // Retry
+						producerThread.cancel();
+						downloadJobProducerThread = null;
+						downloadJobDispatcher.cancelOutstandingJobs();
+						return false;
+					case 2 : // Skip
+						downloadJobDispatcher.cancelOutstandingJobs();
+						throw new MapDownloadSkippedException();
+					default : // Abort or close dialog
+						downloadJobDispatcher.cancelOutstandingJobs();
+						downloadJobDispatcher.terminateAllWorkerThreads();
+						throw new InterruptedException();
 				}
+			}
+			boolean lastJobsRunning = !producerAlive && !jobsWaiting && getActiveDownloads() <= 0;
+			awaitDownloadStateChange(stateVersion,
+					lastJobsRunning ? DOWNLOAD_FINISH_CHECK_INTERVAL : DOWNLOAD_STATE_CHECK_INTERVAL);
+		}
+		download.producerWatcher.interrupt();
+		downloadJobProducerThread = null;
+		LOG.debug("All download jobs has been completed!");
+		TarIndexedArchive tileArchive = download.tileArchive;
+		if (tileArchive != null) {
+			TarIndex tileIndex = download.finishTileArchive();
+			download.tileIndex = tileIndex;
+			if (tileIndex.size() > 0) {
+				averageTileArchiveBytes = download.tileArchiveFile.length() / tileIndex.size();
+			}
+			int tileCount = download.tileCount;
+			if (tileIndex.size() < tileCount && !askOnErrors) {
+				LOG.warn("Map {} has been created with {} of {} tiles", download.map, tileIndex.size(), tileCount);
+			} else if (tileIndex.size() < tileCount && !atlasProgress.ignoreDownloadErrors()) {
+				int missing = tileCount - tileIndex.size();
+				LOG.debug("Expected tile count: {} downloaded tile count: {} missing: {}", tileCount,
+						tileIndex.size(), missing);
+				int answer = JOptionPane.showConfirmDialog(atlasProgress,
+						String.format(I18nUtils.localizedStringForKey("dlg_download_errors_missing_tile_msg"),
+								missing),
+						I18nUtils.localizedStringForKey("dlg_download_errors_missing_tile"), JOptionPane.YES_NO_OPTION,
+						JOptionPane.ERROR_MESSAGE);
+				if (answer != JOptionPane.YES_OPTION) {
+					throw new InterruptedException();
+				}
+			}
+		}
+		downloadJobDispatcher.cancelOutstandingJobs();
+		return true;
+	}
 
-				downloadJobProducerThread = new DownloadJobProducerThread(this, downloadJobDispatcher, tileArchive,
-						(DownloadableElement) map);
-
-				boolean failedMessageAnswered = false;
-
-				while (downloadJobProducerThread.isAlive() || (downloadJobDispatcher.getWaitingJobCount() > 0)
-						|| downloadJobDispatcher.isAtLeastOneWorkerActive()) {
-					Thread.sleep(500);
-					if (!failedMessageAnswered && (jobsRetryError > 50) && !atlasProgress.ignoreDownloadErrors()) {
-						pauseResumeHandler.pause();
-						String[] answers = new String[]{I18nUtils.localizedStringForKey("Continue"),
-								I18nUtils.localizedStringForKey("Retry"), I18nUtils.localizedStringForKey("Skip"),
-								I18nUtils.localizedStringForKey("Abort")};
-						int answer = JOptionPane.showOptionDialog(atlasProgress,
-								I18nUtils.localizedStringForKey("dlg_download_errors_todo_msg"),
-								I18nUtils.localizedStringForKey("dlg_download_errors_todo"), 0,
-								JOptionPane.QUESTION_MESSAGE, null, answers, answers[0]);
-						failedMessageAnswered = true;
-						switch (answer) {
-							case 0 : // Continue
-								pauseResumeHandler.resume();
-								break;
-							case 1 : // Retry
-								downloadJobProducerThread.cancel();
-								downloadJobProducerThread = null;
-								downloadJobDispatcher.cancelOutstandingJobs();
-								return false;
-							case 2 : // Skip
-								downloadJobDispatcher.cancelOutstandingJobs();
-								throw new MapDownloadSkippedException();
-							default : // Abort or close dialog
-								downloadJobDispatcher.cancelOutstandingJobs();
-								downloadJobDispatcher.terminateAllWorkerThreads();
-								throw new InterruptedException();
-						}
-					}
+	/**
+	 * Asks the user how to continue if there are too many download errors while a
+	 * map is created from its streamed tiles. The map is already being created,
+	 * therefore retrying its download is not offered.
+	 *
+	 * @throws IOException
+	 *             if the user has decided to skip the map or to abort the atlas
+	 *             creation. The decision is kept in
+	 *             {@link MapDownload#stopReason} and applied after the atlas
+	 *             creator has returned.
+	 */
+	private void checkStreamingDownloadErrors(MapDownload download) throws IOException {
+		synchronized (download) {
+			if (!download.errorsAnswered && (download.jobsRetryError > RETRY_ERROR_THRESHOLD)
+					&& !atlasProgress.ignoreDownloadErrors()) {
+				pauseResumeHandler.pause();
+				String[] answers = new String[]{I18nUtils.localizedStringForKey("Continue"),
+						I18nUtils.localizedStringForKey("Skip"), I18nUtils.localizedStringForKey("Abort")};
+				int answer = JOptionPane.showOptionDialog(atlasProgress,
+						I18nUtils.localizedStringForKey("dlg_download_errors_todo_msg"),
+						I18nUtils.localizedStringForKey("dlg_download_errors_todo"), 0, JOptionPane.QUESTION_MESSAGE,
+						null, answers, answers[0]);
+				download.errorsAnswered = true;
+				switch (answer) {
+					case 0 : // Continue
+						pauseResumeHandler.resume();
+						break;
+					case 1 : // Skip
+						download.stopReason = new MapDownloadSkippedException();
+						downloadJobDispatcher.cancelOutstandingJobs();
+						pauseResumeHandler.resume();
+						break;
+					default : // Abort or close dialog
+						download.stopReason = new InterruptedException();
+						downloadJobDispatcher.cancelOutstandingJobs();
+						downloadJobDispatcher.terminateAllWorkerThreads();
 				}
-				downloadJobProducerThread = null;
-				LOG.debug("All download jobs has been completed!");
-				if (tileArchive != null) {
-					tileArchive.writeEndofArchive();
-					tileArchive.close();
-					tileIndex = tileArchive.getTarIndex();
-					if (tileIndex.size() < tileCount && !atlasProgress.ignoreDownloadErrors()) {
-						int missing = tileCount - tileIndex.size();
-						LOG.debug("Expected tile count: {} downloaded tile count: {} missing: {}", tileCount,
-								tileIndex.size(), missing);
-						int answer = JOptionPane.showConfirmDialog(atlasProgress,
-								String.format(I18nUtils.localizedStringForKey("dlg_download_errors_missing_tile_msg"),
-										missing),
-								I18nUtils.localizedStringForKey("dlg_download_errors_missing_tile"),
-								JOptionPane.YES_NO_OPTION, JOptionPane.ERROR_MESSAGE);
-						if (answer != JOptionPane.YES_OPTION) {
-							throw new InterruptedException();
-						}
-					}
+			}
+			if (download.stopReason != null) {
+				throw new IOException("Map creation stopped after download errors");
+			}
+		}
+	}
+
+	/**
+	 * @return true if all download jobs of the map have been processed
+	 */
+	private boolean isMapDownloadComplete(MapDownload download) {
+		return !download.producerThread.isAlive() && (downloadJobDispatcher.getWaitingJobCount() == 0)
+				&& !downloadJobDispatcher.isAtLeastOneWorkerActive();
+	}
+
+	/**
+	 * Starts the download of the next map in pipelined mode if the temporary tile
+	 * archives of both maps are expected to fit into the temp disk budget.
+	 */
+	private void prefetchMapDownload(MapInterface nextMap, MapDownload currentDownload) throws Exception {
+		if (!PIPELINED_MAP_CREATION || STREAMING_MAP_CREATION || pendingDownload != null
+				|| nextMap.getMapSource() instanceof FileBasedMapSource) {
+			return;
+		}
+		if (!AtlasOutputFormat.TILESTORE.equals(atlas.getOutputFormat())) {
+			long currentBytes = 0;
+			if (currentDownload != null && currentDownload.tileArchiveFile != null) {
+				currentBytes = currentDownload.tileArchiveFile.length();
+			}
+			long tileBytes = (averageTileArchiveBytes > 0) ? averageTileArchiveBytes : DEFAULT_TILE_ARCHIVE_BYTES;
+			long expectedBytes = nextMap.calculateTilesToDownload() * tileBytes;
+			long usableBytes = DirectoryManager.tempDir.getUsableSpace();
+			if (currentBytes + expectedBytes > PIPELINE_TEMP_DISK_BUDGET || expectedBytes > usableBytes / 2) {
+				LOG.debug("Map {} is not downloaded in advance - expected tile archive size: {} bytes", nextMap,
+						expectedBytes);
+				return;
+			}
+		}
+		LOG.debug("Downloading tiles of map {} while creating the current map", nextMap);
+		pendingDownload = startMapDownload(nextMap);
+	}
+
+	/**
+	 * Shows the progress and the errors of the download of the current map. The
+	 * jobs a download started in advance has already finished are added at once.
+	 */
+	private synchronized void showMapDownloadProgress(MapDownload download) {
+		download.progressShown = true;
+		for (int i = download.jobsCompleted + download.jobsPermanentError; i > 0; i--) {
+			atlasProgress.incMapDownloadProgress();
+		}
+		atlasProgress.setErrorCounter(download.jobsRetryError, download.jobsPermanentError);
+		atlasProgress.updateGUI();
+	}
+
+	/**
+	 * @return the download started in advance for <code>map</code> or
+	 *         <code>null</code>
+	 */
+	private MapDownload takePendingDownload(MapInterface map) {
+		MapDownload download = pendingDownload;
+		pendingDownload = null;
+		if (download == null || download.map == map) {
+			return download;
+		}
+		cancelMapDownload(download);
+		downloadJobDispatcher.cancelOutstandingJobs();
+		return null;
+	}
+
+	private void cancelMapDownload(MapDownload download) {
+		download.producerThread.cancel();
+		download.producerWatcher.interrupt();
+		if (downloadJobProducerThread == download.producerThread) {
+			downloadJobProducerThread = null;
+		}
+		download.deleteTiles();
+	}
+
+	/**
+	 * Starts a daemon thread that signals a download state change as soon as the
+	 * producer thread has created all download jobs.
+	 */
+	private Thread watchProducerThread(final DownloadJobProducerThread producerThread) {
+		Thread watcher = new Thread(getName() + " producer watcher") {
+			@Override
+			public void run() {
+				try {
+					producerThread.join();
+				} catch (InterruptedException e) {
+					return;
 				}
-				downloadJobDispatcher.cancelOutstandingJobs();
-				LOG.debug("Starting to create atlas from downloaded tiles");
-				mapTileProvider = new DownloadedTileProvider(tileIndex, map);
-			} else {
-				// We don't need to download anything. Everything is already stored locally
-				// therefore we can just use it
-				mapTileProvider = new FilteredMapSourceProvider(map, LoadMethod.DEFAULT);
+				signalDownloadStateChange();
 			}
-			atlasCreator.initializeMap(map, mapTileProvider);
-			atlasCreator.createMap();
-		} catch (Error e) {
-			LOG.error("Error in createMap: {}", e.getMessage(), e);
-			throw e;
+		};
+		watcher.setDaemon(true);
+		watcher.start();
+		return watcher;
+	}
+
+	private long getDownloadStateVersion() {
+		downloadStateLock.lock();
+		try {
+			return downloadStateVersion;
 		} finally {
-			if (tileIndex != null) {
-				tileIndex.closeAndDelete();
-			} else if (tileArchive != null) {
-				tileArchive.delete();
+			downloadStateLock.unlock();
+		}
+	}
+
+	/**
+	 * Called when a download job has finished or the producer thread has ended.
+	 */
+	private void signalDownloadStateChange() {
+		downloadStateLock.lock();
+		try {
+			downloadStateVersion++;
+			downloadStateChanged.signalAll();
+		} finally {
+			downloadStateLock.unlock();
+		}
+		StreamingTileProvider provider = streamingProvider;
+		if (provider != null) {
+			provider.downloadStateChanged();
+		}
+	}
+
+	/**
+	 * Waits until the download state has changed since <code>version</code> has
+	 * been retrieved or until the timeout has elapsed.
+	 */
+	private void awaitDownloadStateChange(long version, long timeoutMillis) throws InterruptedException {
+		downloadStateLock.lock();
+		try {
+			long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			while (downloadStateVersion == version && nanos > 0) {
+				nanos = downloadStateChanged.awaitNanos(nanos);
 			}
+		} finally {
+			downloadStateLock.unlock();
 		}
-		return true;
 	}
 
 	public void pauseResumeAtlasCreation() {
@@ -456,29 +855,30 @@ public class AtlasThread extends Thread
 		activeDownloads++;
 	}
 
+	/**
+	 * Called by the {@link MapDownloadListener} of each map after the job counters
+	 * of the map download have been updated
+	 */
 	public void jobFinishedSuccessfully(int bytesDownloaded) {
 		synchronized (this) {
-			atlasProgress.incMapDownloadProgress();
 			activeDownloads--;
-			jobsCompleted++;
 		}
+		signalDownloadStateChange();
 		atlasProgress.updateGUI();
 	}
 
+	/**
+	 * Called by the {@link MapDownloadListener} of each map after the job counters
+	 * of the map download have been updated
+	 */
 	public void jobFinishedWithError(boolean retry) {
 		synchronized (this) {
 			activeDownloads--;
-			if (retry) {
-				jobsRetryError++;
-			} else {
-				jobsPermanentError++;
-				atlasProgress.incMapDownloadProgress();
-			}
 		}
+		signalDownloadStateChange();
 		if (!atlasProgress.ignoreDownloadErrors()) {
 			Toolkit.getDefaultToolkit().beep();
 		}
-		atlasProgress.setErrorCounter(jobsRetryError, jobsPermanentError);
 		atlasProgress.updateGUI();
 	}
 
@@ -506,4 +906,109 @@ public class AtlasThread extends Thread
 	public boolean isMapPreviewThread() {
 		return false;
 	}
+
+	/**
+	 * Counts the jobs of one map download and passes them on to the atlas thread
+	 */
+	private class MapDownloadListener implements DownloadJobListener {
+
+		private final MapDownload download;
+
+		private MapDownloadListener(MapDownload download) {
+			this.download = download;
+		}
+
+		public void jobStarted() {
+			AtlasThread.this.jobStarted();
+		}
+
+		public void jobFinishedSuccessfully(int bytesDownloaded) {
+			synchronized (AtlasThread.this) {
+				download.jobsCompleted++;
+				if (download.progressShown) {
+					atlasProgress.incMapDownloadProgress();
+				}
+			}
+			AtlasThread.this.jobFinishedSuccessfully(bytesDownloaded);
+		}
+
+		public void jobFinishedWithError(boolean retry) {
+			synchronized (AtlasThread.this) {
+				if (retry) {
+					download.jobsRetryError++;
+				} else {
+					download.jobsPermanentError++;
+					if (download.progressShown) {
+						atlasProgress.incMapDownloadProgress();
+					}
+				}
+				if (download.progressShown) {
+					atlasProgress.setErrorCounter(download.jobsRetryError, download.jobsPermanentError);
+				}
+			}
+			AtlasThread.this.jobFinishedWithError(retry);
+		}
+
+		public int getMaxDownloadRetries() {
+			return AtlasThread.this.getMaxDownloadRetries();
+		}
+	}
+
+	/**
+	 * Tile download of one map and the temporary tile archive it writes to
+	 */
+	private static class MapDownload {
+
+		private final MapInterface map;
+		private final int tileCount;
+		private File tileArchiveFile = null;
+		private TarIndexedArchive tileArchive = null;
+		private StreamingTileProvider streamingProvider = null;
+		private TarIndex tileIndex = null;
+		private DownloadJobProducerThread producerThread;
+		private int jobsCompleted = 0;
+		private int jobsRetryError = 0;
+		private int jobsPermanentError = 0;
+		/**
+		 * The map is the current map and the progress of its download is shown.
+		 * Downloads started in advance only count their jobs.
+		 */
+		private boolean progressShown = false;
+		private Thread producerWatcher;
+		/**
+		 * Streaming mode: the user has been asked how to continue after download
+		 * errors
+		 */
+		private boolean errorsAnswered = false;
+		/**
+		 * Streaming mode: thrown after the atlas creator has returned because the
+		 * user has decided to skip the map or to abort
+		 */
+		private volatile Exception stopReason = null;
+
+		private MapDownload(MapInterface map, int tileCount) {
+			this.map = map;
+			this.tileCount = tileCount;
+		}
+
+		private TarIndex finishTileArchive() throws IOException {
+			if (streamingProvider != null) {
+				return streamingProvider.finishTileArchive();
+			}
+			tileArchive.writeEndofArchive();
+			tileArchive.close();
+			return tileArchive.getTarIndex();
+		}
+
+		private void deleteTiles() {
+			if (tileIndex == null && streamingProvider != null) {
+				tileIndex = streamingProvider.getTileIndex();
+			}
+			if (tileIndex != null) {
+				tileIndex.closeAndDelete();
+			} else if (tileArchive != null) {
+				tileArchive.delete();
+			}
+		}
+	}
 }
@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program;
+
+import mobac.program.atlascreators.tileprovider.DownloadedTileProvider;
+import mobac.program.atlascreators.tileprovider.TileProvider;
+import mobac.program.interfaces.MapInterface;
+import mobac.program.interfaces.MapSource;
+import mobac.utilities.tar.TarIndex;
+import mobac.utilities.tar.TarIndexedArchive;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tile provider for a map whose tiles are still being downloaded. Requesting a
+ * tile blocks until the tile has been written to the temporary tile archive,
+ * therefore the atlas creator can create the map while the download is
+ * running.
+ * <p>
+ * Downloaded tiles are kept in memory up to a limit (system property
+ * <code>mobac.streamingbuffer</code> in MiB), least recently used tiles are
+ * dropped first. A tile that is not in memory - because it has been dropped or
+ * because its download failed - is read from the tile archive after all
+ * download jobs of the map have finished.
+ * <p>
+ * Every tile is still written to the temporary tile archive, the streaming mode
+ * only shortens the time until the atlas creator can start. The peak temp disk
+ * usage is the same as without streaming.
+ */
+public class StreamingTileProvider implements TileProvider {
+
+	private static final long MAX_BUFFER_BYTES = Long.getLong("mobac.streamingbuffer", 64) << 20;
+
+	/**
+	 * Waiting threads are woken by every written tile and by
+	 * {@link #downloadStateChanged()}. The timeout is only a safety net.
+	 */
+	private static final long DOWNLOAD_STATE_CHECK_INTERVAL = 500;
+
+	private final MapInterface map;
+	private final DownloadMonitor downloadMonitor;
+	private final Archive tileArchive;
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition stateChanged = lock.newCondition();
+	private final LinkedHashMap<Long, byte[]> tiles = new LinkedHashMap<>(256, 0.75f, true);
+	private long bufferBytes = 0;
+	private TarIndex tileIndex = null;
+
+	public StreamingTileProvider(File tileArchiveFile, int tileCount, MapInterface map,
+			DownloadMonitor downloadMonitor) throws IOException {
+		this.map = map;
+		this.downloadMonitor = downloadMonitor;
+		this.tileArchive = new Archive(tileArchiveFile, tileCount);
+	}
+
+	/**
+	 * @return the archive the download jobs have to write the tiles to
+	 */
+	public TarIndexedArchive getTileArchive() {
+		return tileArchive;
+	}
+
+	/**
+	 * Completes the tile archive after all download jobs have finished. Can be
+	 * called multiple times.
+	 *
+	 * @return the index of the completed tile archive
+	 */
+	public TarIndex finishTileArchive() throws IOException {
+		lock.lock();
+		try {
+			if (tileIndex == null) {
+				tileArchive.writeEndofArchive();
+				tileArchive.close();
+				tileIndex = tileArchive.getTarIndex();
+				stateChanged.signalAll();
+			}
+			return tileIndex;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wakes the threads waiting for a tile so that they check the download state
+	 * again. Has to be called whenever a download job of the map has finished -
+	 * successfully or not - and when all jobs have been created.
+	 */
+	public void downloadStateChanged() {
+		lock.lock();
+		try {
+			stateChanged.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the index of the completed tile archive or <code>null</code> if the
+	 *         download is still running
+	 */
+	public TarIndex getTileIndex() {
+		lock.lock();
+		try {
+			return tileIndex;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public byte[] getTileData(int x, int y) throws IOException {
+		return getTileData(0, x, y);
+	}
+
+	public byte[] getTileData(int layer, int x, int y) throws IOException {
+		long key = key(layer, x, y);
+		TarIndex index = null;
+		while (index == null) {
+			lock.lock();
+			try {
+				byte[] data = tiles.get(key);
+				if (data != null) {
+					return data;
+				}
+				if (tileIndex == null && downloadMonitor.isDownloadComplete()) {
+					finishTileArchive();
+				}
+				index = tileIndex;
+				if (index == null) {
+					stateChanged.await(DOWNLOAD_STATE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Waiting for tile " + x + "/" + y + " interrupted");
+			} finally {
+				lock.unlock();
+			}
+			if (index == null) {
+				// outside of the lock as this may ask the user how to continue
+				downloadMonitor.checkDownloadErrors();
+			}
+		}
+		return index.getEntryContent(String.format(DownloadedTileProvider.TILE_FILENAME_PATTERN, layer, x, y));
+	}
+
+	public BufferedImage getTileImage(int x, int y) throws IOException {
+		return getTileImage(0, x, y);
+	}
+
+	public BufferedImage getTileImage(int layer, int x, int y) throws IOException {
+		byte[] data = getTileData(layer, x, y);
+		if (data == null) {
+			return null;
+		}
+		return ImageIO.read(new ByteArrayInputStream(data));
+	}
+
+	public boolean preferTileImageUsage() {
+		return false;
+	}
+
+	public MapSource getMapSource() {
+		return map.getMapSource();
+	}
+
+	private void tileWritten(String fileName, byte[] data) {
+		long key = parseKey(fileName);
+		if (key < 0 || data.length > MAX_BUFFER_BYTES) {
+			return;
+		}
+		lock.lock();
+		try {
+			byte[] old = tiles.put(key, data);
+			if (old != null) {
+				bufferBytes -= old.length;
+			}
+			bufferBytes += data.length;
+			Iterator<byte[]> it = tiles.values().iterator();
+			while (bufferBytes > MAX_BUFFER_BYTES && it.hasNext()) {
+				bufferBytes -= it.next().length;
+				it.remove();
+			}
+			stateChanged.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	static long key(int layer, int x, int y) {
+		return ((long) layer << 58) | (((long) x & 0x1FFFFFFF) << 29) | ((long) y & 0x1FFFFFFF);
+	}
+
+	/**
+	 * Parses a tile file name created via
+	 * {@link DownloadedTileProvider#TILE_FILENAME_PATTERN}
+	 *
+	 * @return the tile key or -1 if the name does not match
+	 */
+	static long parseKey(String fileName) {
+		int[] values = new int[3];
+		char[] prefixes = {'l', 'x', 'y'};
+		int pos = 0;
+		for (int i = 0; i < 3; i++) {
+			if (pos >= fileName.length() || fileName.charAt(pos) != prefixes[i]) {
+				return -1;
+			}
+			pos++;
+			int start = pos;
+			int value = 0;
+			while (pos < fileName.length() && Character.isDigit(fileName.charAt(pos)) && pos - start < 9) {
+				value = value * 10 + (fileName.charAt(pos) - '0');
+				pos++;
+			}
+			if (pos == start) {
+				return -1;
+			}
+			values[i] = value;
+		}
+		if (pos != fileName.length() || values[0] > 63) {
+			return -1;
+		}
+		return key(values[0], values[1], values[2]);
+	}
+
+	/**
+	 * Download state of the map the provider is streaming
+	 */
+	public interface DownloadMonitor {
+
+		/**
+		 * @return <code>true</code> as soon as all download jobs of the map have been
+		 *         processed
+		 */
+		boolean isDownloadComplete();
+
+		/**
+		 * Called by a thread waiting for a tile without holding any lock. May ask the
+		 * user how to continue if there are too many download errors.
+		 *
+		 * @throws IOException
+		 *             if the map creation has to be stopped
+		 */
+		void checkDownloadErrors() throws IOException;
+	}
+
+	/**
+	 * Tile archive that passes each written tile to the provider
+	 */
+	private class Archive extends TarIndexedArchive {
+
+		private Archive(File archiveFile, int maxFiles) throws IOException {
+			super(archiveFile, maxFiles);
+		}
+
+		@Override
+		public void writeFileFromData(String fileName, byte[] data) throws IOException {
+			super.writeFileFromData(fileName, data);
+			tileWritten(fileName, data);
+		}
+	}
+}
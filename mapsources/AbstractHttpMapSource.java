@@ -35,12 +35,11 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.net.URL;
 
 /**
  * Abstract base class for HTTP based non-custom map sources.
  */
-public abstract class AbstractHttpMapSource extends AbstractHttpMapSourceBase {
+public abstract class AbstractHttpMapSource extends AbstractHttpMapSourceBase implements EncodedTileMapSource {
 
 	protected String name;
 	protected int minZoom;
@@ -72,7 +71,7 @@ public abstract class AbstractHttpMapSource extends AbstractHttpMapSourceBase {
 		if (url == null) {
 			return null;
 		}
-		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		HttpURLConnection conn = openTileConnection(url);
 		prepareTileUrlConnection(conn);
 		return conn;
 	}
@@ -125,12 +124,17 @@ public abstract class AbstractHttpMapSource extends AbstractHttpMapSourceBase {
 				((MapSourceListener) Thread.currentThread()).tileDownloaded(data.length);
 			}
 			return data;
-		} else if (loadMethod == LoadMethod.SOURCE) {
-			initializeHttpMapSource();
-			return TileDownLoader.downloadTileAndUpdateStore(x, y, zoom, this);
-		} else {
-			initializeHttpMapSource();
-			return TileDownLoader.getImage(x, y, zoom, this);
+		}
+		initializeHttpMapSource();
+		beginTileRequest();
+		try {
+			if (loadMethod == LoadMethod.SOURCE) {
+				return TileDownLoader.downloadTileAndUpdateStore(x, y, zoom, this);
+			} else {
+				return TileDownLoader.getImage(x, y, zoom, this);
+			}
+		} finally {
+			endTileRequest();
 		}
 	}
 
@@ -25,12 +25,37 @@ import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
+import java.net.URL;
 
 public abstract class AbstractHttpMapSourceBase implements HttpMapSource {
 	protected static final SSLSocketFactory SSL_SOCKET_FACTORY = MobacSSLHelper.createSSLSocketFactory(null);
 
+	/**
+	 * Download the tiles of all HTTP map sources via {@link HttpClientTileConnection}
+	 * (system property <code>mobac.httpclient=true</code>)
+	 */
+	protected static final boolean USE_HTTP_CLIENT = Boolean
+			.parseBoolean(System.getProperty("mobac.httpclient", "false"));
+
+	/**
+	 * Maximum number of tile requests per second of all HTTP map sources, 0 for
+	 * unlimited (system property <code>mobac.maxrequestrate</code>)
+	 */
+	protected static final double MAX_REQUEST_RATE = Double
+			.parseDouble(System.getProperty("mobac.maxrequestrate", "0"));
+
+	/**
+	 * The tile request currently performed by the calling thread, see
+	 * {@link #beginTileRequest()}
+	 */
+	private static final ThreadLocal<TileRequest> TILE_REQUEST = new ThreadLocal<>();
+
+	private RequestRateLimiter rateLimiter = null;
+
 	protected final Logger log = LoggerFactory.getLogger(this.getClass());
 
 	@Override
@@ -58,4 +83,143 @@ public abstract class AbstractHttpMapSourceBase implements HttpMapSource {
 		return SSL_SOCKET_FACTORY;
 	}
 
+	/**
+	 * Map sources may override this method to opt in to the shared HTTP/2
+	 * capable client independent of the global setting.
+	 */
+	protected boolean useHttpClient() {
+		return USE_HTTP_CLIENT;
+	}
+
+	/**
+	 * Opens the connection for a tile URL - an {@link HttpClientTileConnection} if
+	 * enabled and possible or a regular {@link HttpURLConnection} otherwise. A
+	 * regular connection of a request limited per host is wrapped in a
+	 * {@link TrackedTileConnection} so that its outcome can be reported to the
+	 * {@link HostRequestLimiter}.
+	 */
+	protected HttpURLConnection openTileConnection(String tileUrl) throws IOException {
+		URL url = new URL(tileUrl);
+		TileRequest request = TILE_REQUEST.get();
+		if (request != null) {
+			limitTileRequest(request, url);
+		}
+		HttpURLConnection connection;
+		if (useHttpClient() && getSslSocketFactory() == SSL_SOCKET_FACTORY && HttpClientTileConnection.supports(url)) {
+			connection = new HttpClientTileConnection(url);
+		} else {
+			connection = (HttpURLConnection) url.openConnection();
+			if (request != null && request.hostLimiter != null) {
+				connection = new TrackedTileConnection(connection);
+			}
+		}
+		if (request != null) {
+			request.connection = connection;
+		}
+		return connection;
+	}
+
+	/**
+	 * Map sources may override this method to limit their tile requests per
+	 * second, 0 means unlimited.
+	 */
+	protected double getMaxRequestsPerSecond() {
+		return MAX_REQUEST_RATE;
+	}
+
+	private synchronized RequestRateLimiter getRateLimiter() {
+		double rate = getMaxRequestsPerSecond();
+		if (rate <= 0) {
+			rateLimiter = null;
+		} else if (rateLimiter == null || rateLimiter.getRequestsPerSecond() != rate) {
+			rateLimiter = new RequestRateLimiter(rate);
+		}
+		return rateLimiter;
+	}
+
+	/**
+	 * Marks the start of a tile download performed by the calling thread. A tile
+	 * connection opened until {@link #endTileRequest()} is called is
+	 * subject to the request rate of the map source and the adaptive concurrency
+	 * limit of the tile server (see {@link HostRequestLimiter}). Tiles loaded from
+	 * the tile store do not open a connection and are therefore not limited.
+	 */
+	protected void beginTileRequest() {
+		TILE_REQUEST.set(new TileRequest(TILE_REQUEST.get()));
+	}
+
+	protected void endTileRequest() {
+		TileRequest request = TILE_REQUEST.get();
+		if (request == null) {
+			return;
+		}
+		if (request.previous != null) {
+			TILE_REQUEST.set(request.previous);
+		} else {
+			TILE_REQUEST.remove();
+		}
+		request.finish();
+	}
+
+	private void limitTileRequest(TileRequest request, URL url) throws IOException {
+		// a connection opened before belongs to a failed attempt
+		request.finish();
+		try {
+			RequestRateLimiter limiter = getRateLimiter();
+			if (limiter != null) {
+				limiter.acquire();
+			}
+			if (HostRequestLimiter.ENABLED && HttpClientTileConnection.supports(url)) {
+				HostRequestLimiter hostLimiter = HostRequestLimiter.forHost(url);
+				hostLimiter.acquire();
+				request.hostLimiter = hostLimiter;
+				request.start = System.nanoTime();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Waiting for tile request to " + url.getHost() + " interrupted");
+		}
+	}
+
+	private static class TileRequest {
+
+		private final TileRequest previous;
+		private HostRequestLimiter hostLimiter = null;
+		private HttpURLConnection connection = null;
+		private long start;
+
+		private TileRequest(TileRequest previous) {
+			this.previous = previous;
+		}
+
+		/**
+		 * Reports the outcome of the request to the host limiter. A failed download
+		 * may still have received a response (e.g. 404 or 429). The response code is
+		 * only queried if the response has been requested, so that no request is
+		 * sent just for reporting.
+		 */
+		private void finish() {
+			if (hostLimiter == null) {
+				return;
+			}
+			long latency = System.nanoTime() - start;
+			int responseCode = -1;
+			String retryAfter = null;
+			if (connection instanceof HttpClientTileConnection) {
+				HttpClientTileConnection clientConnection = (HttpClientTileConnection) connection;
+				responseCode = clientConnection.getReceivedResponseCode();
+				retryAfter = clientConnection.getReceivedHeaderField("Retry-After");
+			} else if (connection instanceof TrackedTileConnection) {
+				TrackedTileConnection trackedConnection = (TrackedTileConnection) connection;
+				responseCode = trackedConnection.getReceivedResponseCode();
+				if (responseCode >= 0) {
+					retryAfter = trackedConnection.getReceivedHeaderField("Retry-After");
+				}
+			}
+			hostLimiter.release(latency, responseCode, HostRequestLimiter.parseRetryAfter(retryAfter));
+			hostLimiter = null;
+			connection = null;
+		}
+	}
+
 }
@@ -20,8 +20,11 @@ import jakarta.xml.bind.annotation.XmlTransient;
 import mobac.exceptions.MapSourceInitializationException;
 import mobac.exceptions.TileException;
 import mobac.gui.mapview.PreviewMap;
+import mobac.mapsources.LayerImageCache.LayerTile;
 import mobac.program.interfaces.InitializableMapSource;
 import mobac.program.interfaces.MapSource;
+import mobac.program.interfaces.MapSourceCallerThreadInfo;
+import mobac.program.interfaces.MapSourceListener;
 import mobac.program.interfaces.MapSpace;
 import mobac.program.model.MapSourceLoaderInfo;
 import mobac.program.model.TileImageType;
@@ -32,16 +35,63 @@ import javax.imageio.ImageIO;
 import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractMultiLayerMapSource implements InitializableMapSource, Iterable<MapSource> {
 
+	/**
+	 * Decoded images of local layers shared by all multi-layer map sources. The
+	 * size in MiB can be configured via the system property
+	 * <code>mobac.layercachesize</code>, 0 disables the cache.
+	 */
+	protected static final LayerImageCache LAYER_IMAGE_CACHE = new LayerImageCache(
+			Long.parseLong(System.getProperty("mobac.layercachesize", "64")) << 20);
+
+	/**
+	 * Composite image of the last tile per thread that is reused by
+	 * {@link #getTileData(int, int, int, LoadMethod)} as the image is not visible
+	 * to the caller.
+	 */
+	private static final ThreadLocal<BufferedImage> COMPOSITE_BUFFER = new ThreadLocal<>();
+
+	/**
+	 * Loads the layers of one tile concurrently. Can be disabled via the system
+	 * property <code>mobac.parallellayers=false</code>.
+	 */
+	private static final boolean PARALLEL_LAYERS = Boolean
+			.parseBoolean(System.getProperty("mobac.parallellayers", "true"));
+
+	private static final PngEncoder PNG_ENCODER = new PngEncoder(6);
+
+	/**
+	 * Maximum number of threads loading layers, can be configured via the system
+	 * property <code>mobac.layerthreads</code>. If all threads are busy the
+	 * calling thread loads the layer itself.
+	 */
+	private static final int LAYER_THREADS = Integer.getInteger("mobac.layerthreads",
+			2 * Runtime.getRuntime().availableProcessors());
+
+	private static final ExecutorService LAYER_EXECUTOR = new ThreadPoolExecutor(0, Math.max(1, LAYER_THREADS), 60,
+			TimeUnit.SECONDS, new SynchronousQueue<>(), LayerLoaderThread::new,
+			new ThreadPoolExecutor.CallerRunsPolicy());
+
 	protected final Logger log = LoggerFactory.getLogger(this.getClass());
 
 	protected String name = "";
@@ -120,9 +170,18 @@ public abstract class AbstractMultiLayerMapSource implements InitializableMapSou
 
 	public byte[] getTileData(int zoom, int x, int y, LoadMethod loadMethod)
 			throws IOException, InterruptedException, TileException {
-		BufferedImage image = getTileImage(zoom, x, y, loadMethod);
-		if (image == null) {
-			return null;
+		MapSource[] layers = mapSources;
+		LayerTile[] layerTiles = loadLayerTiles(layers, zoom, x, y, loadMethod);
+		byte[] data = getUnchangedLayerData(layers, layerTiles);
+		if (data != null) {
+			return data;
+		}
+		BufferedImage image = composeTileImage(layerTiles, true);
+		if (tileType == TileImageType.PNG && image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			int[] pixels = getIntPixels(image);
+			if (pixels != null) {
+				return PNG_ENCODER.encode(pixels, image.getWidth(), image.getHeight());
+			}
 		}
 		ByteArrayOutputStream buf = new ByteArrayOutputStream(16000);
 		if (!ImageIO.write(image, tileType.getFileExt(), buf)) {
@@ -134,40 +193,98 @@ public abstract class AbstractMultiLayerMapSource implements InitializableMapSou
 
 	public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod)
 			throws IOException, InterruptedException, TileException {
-		Graphics2D g2 = null;
-		try {
-			List<BufferedImage> layerImages = new ArrayList<>(mapSources.length);
-			int maxSize = mapSpace.getTileSize();
-			for (MapSource layerMapSource : mapSources) {
-				BufferedImage layerImage = layerMapSource.getTileImage(zoom, x, y, loadMethod);
-				layerImages.add(layerImage); // we add even null values to make sure the layer number is correct
-				if (layerImage != null) {
-					log.debug("Multi layer image loaded: {} {} {} {}", layerMapSource, x, y, zoom);
-					int size = layerImage.getWidth();
-					if (size > maxSize) {
-						maxSize = size;
-					}
+		return composeTileImage(loadLayerTiles(mapSources, zoom, x, y, loadMethod), false);
+	}
+
+	/**
+	 * Returns the encoded data of a layer if the composite image would be
+	 * identical to it: it is the only layer with a tile, it is drawn with full
+	 * opacity in the tile size and the tile type of this map source, and the
+	 * background is either hidden by the layer or fully transparent.
+	 *
+	 * @return the unchanged tile data of a layer or <code>null</code> if the
+	 *         layers have to be composited
+	 */
+	protected byte[] getUnchangedLayerData(MapSource[] layers, LayerTile[] layerTiles) {
+		int index = -1;
+		for (int i = 0; i < layerTiles.length; i++) {
+			if (layerTiles[i] != null) {
+				if (index >= 0) {
+					return null;
 				}
+				index = i;
 			}
+		}
+		if (index < 0 || layerTiles[index].getData() == null || getLayerAlpha(index) < 1.0f
+				|| layers[index].getTileImageType() != tileType) {
+			return null;
+		}
+		BufferedImage image = layerTiles[index].getImage();
+		int tileSize = mapSpace.getTileSize();
+		if (image.getWidth() != tileSize || image.getHeight() != tileSize) {
+			return null;
+		}
+		if (image.getTransparency() != Transparency.OPAQUE
+				&& (!isAlphaTileType() || getBackgroundColor().getAlpha() != 0)) {
+			return null;
+		}
+		return layerTiles[index].getData();
+	}
+
+	/**
+	 * @param pooledBuffer
+	 *            <code>true</code> if the composite image may be drawn into the
+	 *            buffer of the current thread - only allowed if the image is not
+	 *            used after the next call
+	 */
+	protected BufferedImage composeTileImage(LayerTile[] layerTiles, boolean pooledBuffer) {
+		int maxSize = mapSpace.getTileSize();
+		for (LayerTile layerTile : layerTiles) {
+			if (layerTile != null) {
+				int size = layerTile.getImage().getWidth();
+				if (size > maxSize) {
+					maxSize = size;
+				}
+			}
+		}
+		// the topmost opaque layer hides the background and all layers below
+		int firstLayer = 0;
+		boolean covered = false;
+		for (int i = layerTiles.length - 1; i >= 0; i--) {
+			if (layerTiles[i] != null && layerTiles[i].getImage().getTransparency() == Transparency.OPAQUE
+					&& getLayerAlpha(i) >= 1.0f) {
+				firstLayer = i;
+				covered = true;
+				break;
+			}
+		}
+		if (canBlendPixels(layerTiles, firstLayer, maxSize)) {
+			return blendPixels(layerTiles, firstLayer, covered, maxSize, pooledBuffer);
+		}
+		Graphics2D g2 = null;
+		try {
 			int type;
-			if (tileType == TileImageType.PNG || tileType == TileImageType.GIF) {
+			if (isAlphaTileType()) {
 				// PNG supports alpha transparency
 				// GIF supports simple transparency - does not cause problems
 				type = BufferedImage.TYPE_4BYTE_ABGR;
 			} else {
 				type = BufferedImage.TYPE_3BYTE_BGR;
 			}
-			BufferedImage image = new BufferedImage(maxSize, maxSize, type);
+			BufferedImage image = pooledBuffer ? getCompositeBuffer(maxSize, type) : new BufferedImage(maxSize, maxSize,
+					type);
 			g2 = image.createGraphics();
-			g2.setColor(getBackgroundColor());
-			g2.fillRect(0, 0, maxSize, maxSize);
-
-			for (int i = 0; i < layerImages.size(); i++) {
-				BufferedImage layerImage = layerImages.get(i);
-				if (layerImage != null) {
+			if (!covered) {
+				// replaces the previous content of a pooled buffer
+				g2.setComposite(AlphaComposite.Src);
+				g2.setColor(getBackgroundColor());
+				g2.fillRect(0, 0, maxSize, maxSize);
+			}
+			for (int i = firstLayer; i < layerTiles.length; i++) {
+				if (layerTiles[i] != null) {
 					float alpha = getLayerAlpha(i);
 					g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-					g2.drawImage(layerImage, 0, 0, maxSize, maxSize, null);
+					g2.drawImage(layerTiles[i].getImage(), 0, 0, maxSize, maxSize, null);
 				}
 			}
 			return image;
@@ -178,6 +295,257 @@ public abstract class AbstractMultiLayerMapSource implements InitializableMapSou
 		}
 	}
 
+	/**
+	 * @return <code>true</code> if all visible layer images are integer RGB
+	 *         images of the composite size that can be blended without Java2D
+	 */
+	private boolean canBlendPixels(LayerTile[] layerTiles, int firstLayer, int size) {
+		boolean found = false;
+		for (int i = firstLayer; i < layerTiles.length; i++) {
+			if (layerTiles[i] == null) {
+				continue;
+			}
+			BufferedImage image = layerTiles[i].getImage();
+			int type = image.getType();
+			if ((type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB)
+					|| image.getWidth() != size || image.getHeight() != size || getIntPixels(image) == null) {
+				return false;
+			}
+			found = true;
+		}
+		return found;
+	}
+
+	/**
+	 * Composites the layers like {@link AlphaComposite#SRC_OVER} with the layer
+	 * alpha as extra alpha. Fully transparent pixels - the majority of most
+	 * overlay tiles - are skipped.
+	 */
+	private BufferedImage blendPixels(LayerTile[] layerTiles, int firstLayer, boolean covered, int size,
+			boolean pooledBuffer) {
+		boolean alphaOutput = isAlphaTileType();
+		int type = alphaOutput ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		BufferedImage image = pooledBuffer ? getCompositeBuffer(size, type) : new BufferedImage(size, size, type);
+		int[] dst = getIntPixels(image);
+		int pixelCount = size * size;
+		if (!covered) {
+			int background = getBackgroundColor().getRGB();
+			if (!alphaOutput) {
+				background = blendPixel(0xFF000000, background, 255);
+			}
+			Arrays.fill(dst, 0, pixelCount, background);
+		}
+		for (int i = firstLayer; i < layerTiles.length; i++) {
+			if (layerTiles[i] == null) {
+				continue;
+			}
+			BufferedImage layerImage = layerTiles[i].getImage();
+			int[] src = getIntPixels(layerImage);
+			int opaqueMask = (layerImage.getType() == BufferedImage.TYPE_INT_RGB) ? 0xFF000000 : 0;
+			int alpha = Math.round(getLayerAlpha(i) * 255);
+			if (alpha <= 0) {
+				continue;
+			}
+			if (alpha >= 255 && opaqueMask != 0) {
+				for (int p = 0; p < pixelCount; p++) {
+					dst[p] = src[p] | opaqueMask;
+				}
+				continue;
+			}
+			alpha = Math.min(alpha, 255);
+			for (int p = 0; p < pixelCount; p++) {
+				int s = src[p] | opaqueMask;
+				if ((s & 0xFF000000) != 0) {
+					dst[p] = blendPixel(dst[p], s, alpha);
+				}
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Draws the non-premultiplied ARGB pixel <code>s</code> with the extra alpha
+	 * <code>alpha</code> (0-255) over <code>d</code>.
+	 */
+	static int blendPixel(int d, int s, int alpha) {
+		int sa = (s >>> 24) * alpha;
+		if (sa == 0) {
+			return d;
+		}
+		if (sa == 255 * 255) {
+			return s;
+		}
+		sa = (sa + 127) / 255;
+		int dw = ((d >>> 24) * (255 - sa) + 127) / 255;
+		int oa = sa + dw;
+		if (oa == 0) {
+			return 0;
+		}
+		int half = oa >> 1;
+		int r = (((s >> 16) & 0xFF) * sa + ((d >> 16) & 0xFF) * dw + half) / oa;
+		int g = (((s >> 8) & 0xFF) * sa + ((d >> 8) & 0xFF) * dw + half) / oa;
+		int b = ((s & 0xFF) * sa + (d & 0xFF) * dw + half) / oa;
+		return (oa << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * @return the pixel array of an integer RGB image or <code>null</code> if the
+	 *         raster does not store the pixels row by row without gaps
+	 */
+	private static int[] getIntPixels(BufferedImage image) {
+		WritableRaster raster = image.getRaster();
+		if (!(raster.getDataBuffer() instanceof DataBufferInt)
+				|| !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+			return null;
+		}
+		SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+		if (sm.getScanlineStride() != image.getWidth() || raster.getSampleModelTranslateX() != 0
+				|| raster.getSampleModelTranslateY() != 0 || buffer.getOffset() != 0) {
+			return null;
+		}
+		return buffer.getData();
+	}
+
+	private boolean isAlphaTileType() {
+		return tileType == TileImageType.PNG || tileType == TileImageType.GIF;
+	}
+
+	/**
+	 * Loads the tiles of all layers. If parallel loading is enabled all layers
+	 * except the first one are loaded on the {@link #LAYER_EXECUTOR} while the
+	 * first one is loaded by the calling thread. The tile latency is therefore
+	 * determined by the slowest layer instead of the sum of all layers.
+	 * Download callbacks of the layers are forwarded to the calling thread (see
+	 * {@link MapSourceListener}).
+	 *
+	 * @return the layer tiles - <code>null</code> for layers without tile
+	 */
+	protected LayerTile[] loadLayerTiles(MapSource[] layers, int zoom, int x, int y, LoadMethod loadMethod)
+			throws IOException, InterruptedException, TileException {
+		LayerTile[] layerTiles = new LayerTile[layers.length];
+		if (!PARALLEL_LAYERS || layers.length < 2) {
+			for (int i = 0; i < layers.length; i++) {
+				layerTiles[i] = getLayerTile(layers[i], zoom, x, y, loadMethod);
+			}
+			return layerTiles;
+		}
+		List<Future<LayerTile>> futures = new ArrayList<>(layers.length - 1);
+		final Thread caller = LayerLoaderThread.getCaller(Thread.currentThread());
+		try {
+			for (int i = 1; i < layers.length; i++) {
+				final MapSource layer = layers[i];
+				futures.add(LAYER_EXECUTOR.submit(() -> {
+					Thread thread = Thread.currentThread();
+					if (!(thread instanceof LayerLoaderThread) || ((LayerLoaderThread) thread).caller != null) {
+						// rejected task executed by the submitting thread
+						return getLayerTile(layer, zoom, x, y, loadMethod);
+					}
+					LayerLoaderThread loader = (LayerLoaderThread) thread;
+					loader.setCaller(caller);
+					try {
+						return getLayerTile(layer, zoom, x, y, loadMethod);
+					} finally {
+						loader.setCaller(null);
+					}
+				}));
+			}
+			layerTiles[0] = getLayerTile(layers[0], zoom, x, y, loadMethod);
+			for (int i = 1; i < layers.length; i++) {
+				try {
+					layerTiles[i] = futures.get(i - 1).get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					} else if (cause instanceof TileException) {
+						throw (TileException) cause;
+					} else if (cause instanceof InterruptedException) {
+						throw (InterruptedException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new IOException(cause);
+				}
+			}
+			return layerTiles;
+		} finally {
+			// no-op for completed layers, stops the remaining layers on error
+			for (Future<LayerTile> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Loads the tile of one layer from the {@link #LAYER_IMAGE_CACHE} or from the
+	 * layer map source. {@link LoadMethod#SOURCE} always bypasses the cache and
+	 * online layers are never cached. The
+	 * encoded data of an {@link EncodedTileMapSource} is loaded and decoded here
+	 * so that it can be reused unchanged.
+	 */
+	protected LayerTile getLayerTile(MapSource layerMapSource, int zoom, int x, int y, LoadMethod loadMethod)
+			throws IOException, InterruptedException, TileException {
+		if (loadMethod != LoadMethod.SOURCE) {
+			LayerTile layerTile = LAYER_IMAGE_CACHE.get(layerMapSource, zoom, x, y);
+			if (layerTile != null) {
+				return layerTile;
+			}
+		}
+		LayerTile layerTile;
+		if (layerMapSource instanceof EncodedTileMapSource
+				&& ((EncodedTileMapSource) layerMapSource).isTileImageDecodedData()) {
+			byte[] data = layerMapSource.getTileData(zoom, x, y, loadMethod);
+			if (data == null) {
+				return null;
+			}
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+			if (image == null) {
+				return null;
+			}
+			layerTile = new LayerTile(image, data);
+		} else {
+			BufferedImage image = layerMapSource.getTileImage(zoom, x, y, loadMethod);
+			if (image == null) {
+				return null;
+			}
+			layerTile = new LayerTile(image, null);
+		}
+		log.debug("Multi layer image loaded: {} {} {} {}", layerMapSource, x, y, zoom);
+		LAYER_IMAGE_CACHE.put(layerMapSource, zoom, x, y, layerTile);
+		return layerTile;
+	}
+
+	private static BufferedImage getCompositeBuffer(int size, int type) {
+		BufferedImage image = COMPOSITE_BUFFER.get();
+		if (image == null || image.getWidth() != size || image.getHeight() != size || image.getType() != type) {
+			image = new BufferedImage(size, size, type);
+			COMPOSITE_BUFFER.set(image);
+		}
+		return image;
+	}
+
+	/**
+	 * Removes the cached layer images of a map source. Has to be called whenever
+	 * the tiles provided by a map source change, e.g. if the map source is
+	 * reinitialized or reloaded.
+	 */
+	public static void releaseLayerImages(MapSource mapSource) {
+		LAYER_IMAGE_CACHE.remove(mapSource);
+	}
+
+	/**
+	 * Removes the cached images of all current layers, e.g. before the layers are
+	 * replaced.
+	 */
+	protected void releaseLayerImages() {
+		for (MapSource ms : mapSources) {
+			LAYER_IMAGE_CACHE.remove(ms);
+		}
+	}
+
 	protected float getLayerAlpha(int layerIndex) {
 		return 1.0f;
 	}
@@ -191,6 +559,52 @@ public abstract class AbstractMultiLayerMapSource implements InitializableMapSou
 		return getName();
 	}
 
+	/**
+	 * Layer loading thread that forwards the map source callbacks to the thread
+	 * the layer is loaded for, e.g. the download statistics of an atlas download
+	 * job.
+	 */
+	private static class LayerLoaderThread extends Thread implements MapSourceListener, MapSourceCallerThreadInfo {
+
+		private volatile Thread caller = null;
+
+		private LayerLoaderThread(Runnable r) {
+			super(r, "Multi-layer tile loader");
+			setDaemon(true);
+		}
+
+		private void setCaller(Thread caller) {
+			this.caller = caller;
+		}
+
+		/**
+		 * @return the thread a layer is loaded for - for nested multi-layer map
+		 *         sources the caller of the layer loading thread
+		 */
+		private static Thread getCaller(Thread thread) {
+			return (thread instanceof LayerLoaderThread) ? ((LayerLoaderThread) thread).caller : thread;
+		}
+
+		public void tileDownloaded(int size) {
+			Thread t = caller;
+			if (t instanceof MapSourceListener) {
+				((MapSourceListener) t).tileDownloaded(size);
+			}
+		}
+
+		public void tileDownloadStarted(String url) {
+			Thread t = caller;
+			if (t instanceof MapSourceListener) {
+				((MapSourceListener) t).tileDownloadStarted(url);
+			}
+		}
+
+		public boolean isMapPreviewThread() {
+			Thread t = caller;
+			return (t instanceof MapSourceCallerThreadInfo) && ((MapSourceCallerThreadInfo) t).isMapPreviewThread();
+		}
+	}
+
 	public Iterator<MapSource> iterator() {
 		return Arrays.asList(mapSources).iterator();
 	}
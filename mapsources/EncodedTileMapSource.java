@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import mobac.program.interfaces.MapSource;
+
+/**
+ * A map source that stores or downloads encoded tile images. Its
+ * {@link #getTileImage(int, int, int, LoadMethod)} only decodes the data
+ * returned by {@link #getTileData(int, int, int, LoadMethod)}, therefore a
+ * multi-layer map source may load the tile data itself and reuse it unchanged
+ * if no other layer contributes to the tile.
+ */
+public interface EncodedTileMapSource extends MapSource {
+
+	/**
+	 * @return <code>false</code> if the tile image currently differs from the
+	 *         decoded tile data, e.g. because errors are replaced by an empty tile
+	 */
+	default boolean isTileImageDecodedData() {
+		return true;
+	}
+
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import mobac.program.model.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit for the number of concurrent tile requests to one host (AIMD).
+ * <p>
+ * The limit starts at the configured maximum and is increased by one per round
+ * trip as long as the server responds normally. It is halved if the server
+ * responds with HTTP 429 (Too Many Requests) or 503 (Service Unavailable) and
+ * reduced by 10% on other server errors, failed requests without response or
+ * if the average latency exceeds twice the baseline latency. Other client
+ * errors like 404 (missing tile) are regular responses. The limit is decreased at most
+ * once per round trip, because the requests in flight have been sent before the
+ * decrease.
+ * <p>
+ * A <code>Retry-After</code> header sent with a 429 or 503 response blocks all
+ * new requests to the host until the specified time.
+ */
+public class HostRequestLimiter {
+
+	private static final Logger log = LoggerFactory.getLogger(HostRequestLimiter.class);
+
+	/**
+	 * Per host limiting can be disabled via system property
+	 * <code>mobac.hostlimiter=false</code>
+	 */
+	public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("mobac.hostlimiter", "true"));
+
+	/**
+	 * Maximum number of concurrent requests per host, 0 uses the number of
+	 * download threads
+	 */
+	private static final int MAX_CONCURRENCY = Integer.getInteger("mobac.hostconcurrency", 0);
+
+	private static final double LATENCY_TOLERANCE = 2.0;
+	private static final long MIN_DECREASE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long DEFAULT_RETRY_AFTER_MS = 1000;
+	private static final long MAX_RETRY_AFTER_MS = TimeUnit.MINUTES.toMillis(5);
+
+	private static final ConcurrentHashMap<String, HostRequestLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+	private final String host;
+	private double limit;
+	private int inFlight = 0;
+	private double baselineLatency = 0;
+	private double averageLatency = 0;
+	/**
+	 * {@link System#nanoTime()} of the last decrease, only valid if
+	 * {@link #decreased} is set
+	 */
+	private long lastDecrease;
+	private boolean decreased = false;
+	/**
+	 * {@link System#nanoTime()} until new requests are blocked, the origin of
+	 * nano time is arbitrary and therefore initialized with the current time
+	 */
+	private long blockedUntil;
+
+	private HostRequestLimiter(String host) {
+		this.host = host;
+		this.limit = getMaxLimit();
+		this.blockedUntil = System.nanoTime();
+	}
+
+	/**
+	 * @return the limiter shared by all map sources requesting tiles from the host
+	 *         (and port) of <code>url</code>
+	 */
+	public static HostRequestLimiter forHost(URL url) {
+		String host = url.getAuthority();
+		host = (host != null) ? host.toLowerCase() : "";
+		return LIMITERS.computeIfAbsent(host, HostRequestLimiter::new);
+	}
+
+	private static int getMaxLimit() {
+		if (MAX_CONCURRENCY > 0) {
+			return MAX_CONCURRENCY;
+		}
+		return Math.max(1, Settings.getInstance().downloadThreadCount);
+	}
+
+	/**
+	 * Waits until a request to the host is allowed. Each call has to be followed
+	 * by a call of {@link #release(long, int, long)}.
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (true) {
+			long wait = blockedUntil - System.nanoTime();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.timedWait(this, wait);
+			} else if (inFlight < Math.min((int) limit, getMaxLimit())) {
+				break;
+			} else {
+				wait();
+			}
+		}
+		inFlight++;
+	}
+
+	/**
+	 * @param latency
+	 *            duration of the request in nanoseconds
+	 * @param responseCode
+	 *            HTTP response code or -1 if the request failed without response
+	 * @param retryAfter
+	 *            value of the <code>Retry-After</code> header in milliseconds or -1
+	 */
+	public synchronized void release(long latency, int responseCode, long retryAfter) {
+		inFlight--;
+		long now = System.nanoTime();
+		if (responseCode == 429 || responseCode == 503) {
+			long delay = (retryAfter >= 0) ? Math.min(retryAfter, MAX_RETRY_AFTER_MS) : DEFAULT_RETRY_AFTER_MS;
+			long until = now + TimeUnit.MILLISECONDS.toNanos(delay);
+			if (until - blockedUntil > 0) {
+				blockedUntil = until;
+			}
+			log.debug("Host {} is overloaded (HTTP {}) - pausing requests for {} ms", host, responseCode, delay);
+			decrease(now, 0.5);
+		} else if (responseCode < 0 || responseCode >= 500) {
+			decrease(now, 0.9);
+		} else {
+			updateLatency(latency);
+			if (averageLatency > LATENCY_TOLERANCE * baselineLatency) {
+				decrease(now, 0.9);
+			} else {
+				limit = Math.min(getMaxLimit(), limit + 1.0 / limit);
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * The baseline follows lower latencies immediately and higher latencies
+	 * slowly, so that it adapts to a server that has permanently become slower.
+	 */
+	private void updateLatency(long latency) {
+		if (baselineLatency == 0) {
+			baselineLatency = latency;
+			averageLatency = latency;
+			return;
+		}
+		baselineLatency = Math.min(latency, baselineLatency + (latency - baselineLatency) / 100);
+		averageLatency += (latency - averageLatency) / 10;
+	}
+
+	private void decrease(long now, double factor) {
+		if (decreased && now - lastDecrease < Math.max(MIN_DECREASE_INTERVAL, (long) baselineLatency)) {
+			return;
+		}
+		decreased = true;
+		lastDecrease = now;
+		double newLimit = Math.max(1, limit * factor);
+		if ((int) newLimit != (int) limit) {
+			log.debug("Concurrent requests to {} limited to {}", host, (int) newLimit);
+		}
+		limit = newLimit;
+	}
+
+	/**
+	 * @return the delay in milliseconds specified by a <code>Retry-After</code>
+	 *         header value (seconds or HTTP date) or -1 if the value is missing or
+	 *         invalid
+	 */
+	public static long parseRetryAfter(String value) {
+		if (value == null) {
+			return -1;
+		}
+		value = value.trim();
+		try {
+			return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+		} catch (NumberFormatException e) {
+			// not a number of seconds
+		}
+		try {
+			ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+			return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("HostRequestLimiter [host=%s, limit=%.1f, inFlight=%d, latency=%.0f/%.0f ms]", host,
+				limit, inFlight, averageLatency / 1e6, baselineLatency / 1e6);
+	}
+}
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import mobac.program.model.Settings;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Authenticator;
+import java.net.HttpURLConnection;
+import java.net.ProxySelector;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link HttpURLConnection} that performs the request via a
+ * {@link HttpClient} shared by all map sources. The client negotiates HTTP/2
+ * where the tile server supports it (all requests to one host are multiplexed
+ * over one connection) and keeps HTTP/1.1 connections per host alive, so most
+ * tile requests do not require a new TCP connection or TLS handshake.
+ * <p>
+ * The connection behaves like a regular {@link HttpURLConnection} towards the
+ * tile downloader: request properties, method and timeouts are set as usual,
+ * the request is sent on {@link #connect()} and the response body is buffered
+ * completely. Waiting for the response can be interrupted.
+ * <p>
+ * The client uses the default SSL context, therefore map sources with their
+ * own SSL socket factory (trusted public keys) can not use this connection.
+ */
+public class HttpClientTileConnection extends HttpURLConnection {
+
+	/**
+	 * Headers set by the client itself
+	 */
+	private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host",
+			"upgrade");
+
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "HTTP tile client");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static HttpClient redirectingClient = null;
+	private static HttpClient nonRedirectingClient = null;
+
+	private HttpResponse<byte[]> response = null;
+	private IOException failure = null;
+
+	public HttpClientTileConnection(URL url) {
+		super(url);
+	}
+
+	/**
+	 * @return <code>true</code> if the URL uses a protocol supported by this
+	 *         connection
+	 */
+	public static boolean supports(URL url) {
+		String protocol = url.getProtocol();
+		return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
+	}
+
+	private static synchronized HttpClient getClient(boolean followRedirects) {
+		HttpClient client = followRedirects ? redirectingClient : nonRedirectingClient;
+		if (client != null) {
+			return client;
+		}
+		HttpClient.Builder builder = HttpClient.newBuilder();
+		builder.version(HttpClient.Version.HTTP_2);
+		builder.followRedirects(followRedirects ? HttpClient.Redirect.NORMAL : HttpClient.Redirect.NEVER);
+		builder.executor(EXECUTOR);
+		Settings settings = Settings.getInstance();
+		if (settings.httpConnectionTimeout > 0) {
+			builder.connectTimeout(Duration.ofSeconds(settings.httpConnectionTimeout));
+		}
+		ProxySelector proxySelector = ProxySelector.getDefault();
+		if (proxySelector != null) {
+			builder.proxy(proxySelector);
+		}
+		Authenticator authenticator = Authenticator.getDefault();
+		if (authenticator != null) {
+			builder.authenticator(authenticator);
+		}
+		client = builder.build();
+		if (followRedirects) {
+			redirectingClient = client;
+		} else {
+			nonRedirectingClient = client;
+		}
+		return client;
+	}
+
+	@Override
+	public synchronized void connect() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		if (connected) {
+			return;
+		}
+		HttpRequest.Builder builder;
+		try {
+			builder = HttpRequest.newBuilder(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			throw new IOException("Invalid tile URL: " + url, e);
+		}
+		if (getReadTimeout() > 0) {
+			builder.timeout(Duration.ofMillis(getReadTimeout()));
+		}
+		boolean ifModifiedSinceSet = false;
+		for (Map.Entry<String, List<String>> header : getRequestProperties().entrySet()) {
+			String name = header.getKey();
+			if (name == null || RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+				continue;
+			}
+			ifModifiedSinceSet |= name.equalsIgnoreCase("If-Modified-Since");
+			for (String value : header.getValue()) {
+				builder.header(name, value);
+			}
+		}
+		if (ifModifiedSince != 0 && !ifModifiedSinceSet) {
+			builder.header("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME
+					.format(Instant.ofEpochMilli(ifModifiedSince).atZone(ZoneOffset.UTC)));
+		}
+		builder.method(method, HttpRequest.BodyPublishers.noBody());
+
+		CompletableFuture<HttpResponse<byte[]>> future = getClient(getInstanceFollowRedirects())
+				.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+		try {
+			response = future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			failure = new InterruptedIOException("Download of " + url + " interrupted");
+			throw failure;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			failure = (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+			throw failure;
+		}
+		responseCode = response.statusCode();
+		connected = true;
+	}
+
+	@Override
+	public void disconnect() {
+		// connections are pooled by the client
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return false;
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		connect();
+		return responseCode;
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		connect();
+		// HTTP/2 does not transfer a reason phrase
+		return null;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		connect();
+		if (responseCode >= 400) {
+			if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE) {
+				throw new FileNotFoundException(url.toString());
+			}
+			throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+		}
+		return new ByteArrayInputStream(response.body());
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		if (response == null || responseCode < 400) {
+			return null;
+		}
+		return new ByteArrayInputStream(response.body());
+	}
+
+	@Override
+	public String getHeaderField(String name) {
+		if (!connectQuietly() || name == null) {
+			return null;
+		}
+		List<String> values = response.headers().allValues(name);
+		return values.isEmpty() ? null : values.get(values.size() - 1);
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		if (!connectQuietly()) {
+			return Collections.emptyMap();
+		}
+		return response.headers().map();
+	}
+
+	/**
+	 * Header 0 is the status line like in {@link HttpURLConnection}
+	 */
+	@Override
+	public String getHeaderFieldKey(int n) {
+		if (n == 0) {
+			return null;
+		}
+		String[] header = getHeader(n);
+		return (header != null) ? header[0] : null;
+	}
+
+	@Override
+	public String getHeaderField(int n) {
+		if (n == 0) {
+			return connectQuietly() ? getStatusLine() : null;
+		}
+		String[] header = getHeader(n);
+		return (header != null) ? header[1] : null;
+	}
+
+	private String[] getHeader(int n) {
+		if (!connectQuietly() || n < 1) {
+			return null;
+		}
+		List<String[]> headers = new ArrayList<>();
+		for (Map.Entry<String, List<String>> entry : response.headers().map().entrySet()) {
+			for (String value : entry.getValue()) {
+				headers.add(new String[]{entry.getKey(), value});
+			}
+		}
+		return (n <= headers.size()) ? headers.get(n - 1) : null;
+	}
+
+	private String getStatusLine() {
+		String version = (response.version() == HttpClient.Version.HTTP_2) ? "HTTP/2" : "HTTP/1.1";
+		return version + " " + responseCode;
+	}
+
+	/**
+	 * @return the response code or -1 if no response has been received (without
+	 *         sending the request)
+	 */
+	int getReceivedResponseCode() {
+		return (response != null) ? responseCode : -1;
+	}
+
+	/**
+	 * @return the header value or <code>null</code> if no response has been
+	 *         received (without sending the request)
+	 */
+	String getReceivedHeaderField(String name) {
+		return (response != null) ? getHeaderField(name) : null;
+	}
+
+	private boolean connectQuietly() {
+		try {
+			connect();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import mobac.mapsources.custom.StandardMapSourceLayer;
+import mobac.program.interfaces.HttpMapSource;
+import mobac.program.interfaces.MapSource;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory cache for decoded layer tile images of multi-layer map sources. The
+ * cache is limited by the estimated size of the decoded images in bytes, the
+ * least recently used images are evicted first.
+ * <p>
+ * Entries are identified by the layer map source instance and the tile
+ * coordinates, therefore a layer used by several multi-layer map sources is
+ * only loaded and decoded once. A {@link StandardMapSourceLayer} is replaced by
+ * the map source it wraps, so that the images of a registered map source are
+ * shared with the custom multi-layer map sources referencing it by name. Cached
+ * images are shared and must not be modified.
+ * <p>
+ * For layers implementing {@link EncodedTileMapSource} the encoded tile data is
+ * kept as well, so that it can be reused unchanged.
+ * <p>
+ * Only tiles of local layers are cached. The tiles of an {@link HttpMapSource}
+ * are subject to the tile store expiry, tile update and load method settings,
+ * and the layers of a nested multi-layer map source are cached individually.
+ */
+public class LayerImageCache {
+
+	private final LinkedHashMap<Key, LayerTile> images = new LinkedHashMap<>(256, 0.75f, true);
+
+	private long maxBytes;
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param maxBytes
+	 *            maximum estimated size of all cached images, 0 disables the cache
+	 */
+	public LayerImageCache(long maxBytes) {
+		this.maxBytes = Math.max(0, maxBytes);
+	}
+
+	/**
+	 * @return the cached tile or <code>null</code>
+	 */
+	public synchronized LayerTile get(MapSource layer, int zoom, int x, int y) {
+		layer = unwrap(layer);
+		if (maxBytes == 0 || !isCacheable(layer)) {
+			return null;
+		}
+		LayerTile tile = images.get(new Key(layer, TileKeyMap.key(zoom, x, y)));
+		if (tile != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return tile;
+	}
+
+	public synchronized void put(MapSource layer, int zoom, int x, int y, LayerTile tile) {
+		layer = unwrap(layer);
+		long size = sizeOf(tile);
+		if (size > maxBytes || !isCacheable(layer)) {
+			return;
+		}
+		LayerTile old = images.put(new Key(layer, TileKeyMap.key(zoom, x, y)), tile);
+		if (old != null) {
+			bytes -= sizeOf(old);
+		}
+		bytes += size;
+		evict();
+	}
+
+	/**
+	 * Removes all images of the specified layer map source, e.g. after the layer
+	 * has been replaced or its tiles have changed.
+	 */
+	public synchronized void remove(MapSource layer) {
+		layer = unwrap(layer);
+		Iterator<Map.Entry<Key, LayerTile>> it = images.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, LayerTile> entry = it.next();
+			if (entry.getKey().layer == layer) {
+				bytes -= sizeOf(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		images.clear();
+		bytes = 0;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = Math.max(0, maxBytes);
+		evict();
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	private static MapSource unwrap(MapSource layer) {
+		while (layer instanceof StandardMapSourceLayer && ((StandardMapSourceLayer) layer).getMapSource() != null) {
+			layer = ((StandardMapSourceLayer) layer).getMapSource();
+		}
+		return layer;
+	}
+
+	private static boolean isCacheable(MapSource layer) {
+		return !(layer instanceof HttpMapSource) && !(layer instanceof AbstractMultiLayerMapSource);
+	}
+
+	private void evict() {
+		Iterator<LayerTile> it = images.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= sizeOf(it.next());
+			it.remove();
+		}
+	}
+
+	/**
+	 * @return the size of the image data buffer and the encoded data in bytes
+	 */
+	private static long sizeOf(LayerTile tile) {
+		DataBuffer buffer = tile.image.getRaster().getDataBuffer();
+		long elementBits = DataBuffer.getDataTypeSize(buffer.getDataType());
+		long size = (long) buffer.getSize() * buffer.getNumBanks() * elementBits / 8;
+		return (tile.data != null) ? size + tile.data.length : size;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("LayerImageCache [images=%d, bytes=%d/%d, hits=%d, misses=%d]", images.size(), bytes,
+				maxBytes, hits, misses);
+	}
+
+	/**
+	 * Decoded image of one layer tile and optionally the encoded tile data the
+	 * image has been decoded from.
+	 */
+	public static class LayerTile {
+
+		private final BufferedImage image;
+		private final byte[] data;
+
+		public LayerTile(BufferedImage image, byte[] data) {
+			this.image = image;
+			this.data = data;
+		}
+
+		public BufferedImage getImage() {
+			return image;
+		}
+
+		/**
+		 * @return the encoded tile data or <code>null</code> if the image has not been
+		 *         decoded from tile data
+		 */
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	private static class Key {
+
+		private final MapSource layer;
+		private final long tileKey;
+
+		private Key(MapSource layer, long tileKey) {
+			this.layer = layer;
+			this.tileKey = tileKey;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return layer == other.layer && tileKey == other.tileKey;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(layer) + Long.hashCode(tileKey);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import org.mapsforge.map.reader.MapFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Reference counted registry of open Mapsforge {@link MapFile}s. All
+ * {@link MapsforgeMapSource} instances (including clones and pooled renderers)
+ * use the same {@link MapFile} instance - and therefore the same file handle
+ * and index cache - for the same map file. A map file is closed when the last
+ * user has released it. If the file has been modified since it was opened the
+ * next {@link #acquire(File)} opens it again.
+ */
+public class MapFileRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(MapFileRegistry.class);
+
+	private static final Map<String, Entry> ENTRIES = new HashMap<>();
+	private static final Map<MapFile, Entry> ENTRIES_BY_MAP_FILE = new IdentityHashMap<>();
+
+	private MapFileRegistry() {
+	}
+
+	/**
+	 * Returns the shared {@link MapFile} for the specified file and increments its
+	 * reference count. Each call has to be matched by a call of
+	 * {@link #release(MapFile)}.
+	 */
+	public static synchronized MapFile acquire(File file) {
+		String path = getCanonicalPath(file);
+		Entry entry = ENTRIES.get(path);
+		if (entry != null && (entry.lastModified != file.lastModified() || entry.length != file.length())) {
+			log.debug("Map file {} has been modified - opening it again", path);
+			ENTRIES.remove(path);
+			entry = null;
+		}
+		if (entry == null) {
+			entry = new Entry(path, new MapFile(file), file.lastModified(), file.length());
+			ENTRIES.put(path, entry);
+			ENTRIES_BY_MAP_FILE.put(entry.mapFile, entry);
+			log.debug("Opened map file {}", path);
+		}
+		entry.refCount++;
+		return entry.mapFile;
+	}
+
+	/**
+	 * Decrements the reference count of the map file and closes it if it is no
+	 * longer used.
+	 */
+	public static synchronized void release(MapFile mapFile) {
+		Entry entry = ENTRIES_BY_MAP_FILE.get(mapFile);
+		if (entry == null) {
+			mapFile.close();
+			return;
+		}
+		if (--entry.refCount > 0) {
+			return;
+		}
+		ENTRIES_BY_MAP_FILE.remove(mapFile);
+		if (ENTRIES.get(entry.path) == entry) {
+			ENTRIES.remove(entry.path);
+		}
+		mapFile.close();
+		log.debug("Closed map file {}", entry.path);
+	}
+
+	private static String getCanonicalPath(File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	private static class Entry {
+
+		final String path;
+		final MapFile mapFile;
+		final long lastModified;
+		final long length;
+		int refCount = 0;
+
+		Entry(String path, MapFile mapFile, long lastModified, long length) {
+			this.path = path;
+			this.mapFile = mapFile;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+
+	}
+}
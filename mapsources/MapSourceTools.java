@@ -19,6 +19,7 @@ package mobac.mapsources;
 import mobac.program.interfaces.MapSource;
 import mobac.program.interfaces.MapSpace;
 
+import java.awt.Rectangle;
 import java.security.SecureRandom;
 
 /**
@@ -94,6 +95,31 @@ public class MapSourceTools {
 		return result;
 	}
 
+	/**
+	 * Creates the tile bounds of a zoom level (see
+	 * {@link TileBoundsMapSource#getTileBounds(int)}) from the numbers of the first
+	 * and last tile. The result is clipped to the tiles existing on the zoom level.
+	 *
+	 * @param invertY
+	 *            <code>true</code> if the y numbers count from the bottom (TMS)
+	 */
+	public static Rectangle createTileBounds(int zoom, int minX, int minY, int maxX, int maxY, boolean invertY) {
+		int maxTile = (1 << zoom) - 1;
+		if (invertY) {
+			int y = minY;
+			minY = maxTile - maxY;
+			maxY = maxTile - y;
+		}
+		minX = Math.max(0, minX);
+		minY = Math.max(0, minY);
+		maxX = Math.min(maxTile, maxX);
+		maxY = Math.min(maxTile, maxY);
+		if (maxX < minX || maxY < minY) {
+			return new Rectangle();
+		}
+		return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+	}
+
 	public static String formatMapUrl(String mapUrl, int zoom, int tilex, int tiley) {
 		String tmp = mapUrl;
 		tmp = tmp.replace("{$x}", Integer.toString(tilex));
@@ -23,7 +23,6 @@ import mobac.exceptions.UnrecoverableDownloadException;
 import mobac.mapsources.mapspace.MercatorPower2MapSpace;
 import mobac.program.interfaces.CloneableMapSource;
 import mobac.program.interfaces.FileBasedMapSource;
-import mobac.program.interfaces.MapSource;
 import mobac.program.interfaces.MapSpace;
 import mobac.program.interfaces.RefreshableMapSource;
 import mobac.program.model.Atlas;
@@ -57,24 +56,30 @@ import org.mapsforge.map.rendertheme.rule.RenderThemeFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-public class MapsforgeMapSource implements MapSource, FileBasedMapSource, RefreshableMapSource, CloneableMapSource {
+public class MapsforgeMapSource
+		implements TileRasterMapSource, FileBasedMapSource, RefreshableMapSource, CloneableMapSource {
 
 	private static final Logger LOG = LoggerFactory.getLogger(MapsforgeMapSource.class);
 
 	private static final String name = "MapsforgeWorld";
 
+	/**
+	 * Number of metatiles kept in memory - enough for one row of metatiles of a
+	 * large map
+	 */
+	private static final int METATILE_CACHE_SIZE = 128;
+
 	static {
 		Parameters.VALIDATE_COORDINATES = false;
 	}
@@ -83,17 +88,57 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 	protected List<File> mapFileList = new ArrayList<>();
 	protected DatabaseRenderer renderer;
 	protected XmlRenderTheme xmlRenderTheme;
+	/**
+	 * File of {@link #xmlRenderTheme} or <code>null</code> for internal themes
+	 */
+	protected File xmlRenderThemeFile = null;
 	protected DataPolicy dataPolicy = MultiMapDataStore.DataPolicy.RETURN_ALL;
 	protected DisplayModel displayModel;
 	protected MultiMapDataStore multiMapDataStore;
 	protected RenderThemeFuture renderThemeFuture;
+	/**
+	 * Parsed render themes of this map source, shared with its clones
+	 */
+	protected RenderThemeCache renderThemeCache = new RenderThemeCache();
 	protected XmlRenderThemeStyleMenu renderThemeStyleMenu;
-	protected MapsForgeCache labelInfoCache = new MapsForgeCache();
-	protected TileBasedLabelStore tileBasedLabelStore = new MyTileBasedLabelStore(1000);
+	/**
+	 * Number of rendered tiles remembered for label placement
+	 */
+	@XmlElement(defaultValue = "100000")
+	protected int labelCacheSize = 100000;
 	@XmlElement(defaultValue = "false")
 	protected boolean transparent = false;
 	@XmlElement(defaultValue = "1.0")
 	protected float textScale = 1.0f;
+	/**
+	 * Maximum number of tiles rendered concurrently. Each concurrent render uses
+	 * its own {@link MultiMapDataStore} and {@link DatabaseRenderer} while the
+	 * label cache and the thread-safe label store are shared (see
+	 * {@link RendererPool}). A value of 0 or less uses one renderer per available
+	 * processor.
+	 */
+	@XmlElement(defaultValue = "1")
+	protected int renderThreads = 1;
+	/**
+	 * Deflate compression level (0-9) used for encoding the rendered tiles as PNG
+	 */
+	@XmlElement(defaultValue = "4")
+	protected int pngCompressionLevel = 4;
+	protected PngEncoder pngEncoder;
+	protected RendererPool rendererPool;
+	/**
+	 * Number of tiles in x and y direction of a metatile. Values larger than 1
+	 * enable the metatile mode: The map data is read once for each block of
+	 * <code>metatileSize x metatileSize</code> tiles (see
+	 * {@link MetatileMapDataStore}).
+	 */
+	@XmlElement(defaultValue = "1")
+	protected int metatileSize = 1;
+	protected MetatileMapDataStore.MetatileCache metatileCache;
+	/**
+	 * <code>true</code> for map sources created via {@link #clone()}
+	 */
+	private boolean cloned = false;
 	private MapSpace mapSpace = MercatorPower2MapSpace.INSTANCE_256;
 
 	public MapsforgeMapSource() {
@@ -119,12 +164,50 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 	@Override
 	public void reinitialize() {
 		GraphicFactory graphicFactory = AwtGraphicFactory.INSTANCE;
-		multiMapDataStore = new MultiMapDataStore(dataPolicy);
+		// map files or render theme may have changed
+		AbstractMultiLayerMapSource.releaseLayerImages(this);
+		if (rendererPool != null) {
+			LOG.debug("Label cache of {}: {}", getName(), rendererPool.labelInfoCache);
+		}
+		int poolSize = (renderThreads > 0) ? renderThreads : Runtime.getRuntime().availableProcessors();
+		if (metatileCache != null) {
+			metatileCache.clear();
+		}
+		metatileCache = (metatileSize > 1) ? new MetatileMapDataStore.MetatileCache(metatileSize, METATILE_CACHE_SIZE)
+				: null;
+		RendererPool pool = new RendererPool(poolSize);
+		// The first renderer is created immediately so that errors in the map files
+		// are reported on initialization
+		PooledRenderer first = createPooledRenderer(pool);
+		pool.add(first);
+		multiMapDataStore = first.dataStore;
+		renderer = first.renderer;
+		RendererPool oldPool = rendererPool;
+		rendererPool = pool;
+		if (oldPool != null) {
+			oldPool.close();
+		}
+		// The theme is parsed in background, rendering waits for it if necessary
+		renderThemeFuture = renderThemeCache.getRenderThemeFuture(graphicFactory, xmlRenderTheme, xmlRenderThemeFile,
+				displayModel, textScale);
+	}
+
+	/**
+	 * Creates a data store for all map files of this map source. The map files are
+	 * acquired from the {@link MapFileRegistry} and added to
+	 * <code>mapFiles</code>. They have to be released via
+	 * {@link MapFileRegistry#release(MapFile)} instead of closing the data store.
+	 */
+	protected MultiMapDataStore createMultiMapDataStore(List<MapFile> mapFiles) {
+		MultiMapDataStore dataStore = (metatileCache != null)
+				? new MetatileMapDataStore(dataPolicy, metatileCache)
+				: new MultiMapDataStore(dataPolicy);
 		boolean first = true;
 		for (File mapFile : mapFileList) {
 			try {
-				MapFile mf = new MapFile(mapFile);
-				multiMapDataStore.addMapDataStore(mf, first, first);
+				MapFile mf = MapFileRegistry.acquire(mapFile);
+				mapFiles.add(mf);
+				dataStore.addMapDataStore(mf, first, first);
 				first = false;
 			} catch (MapFileException e) {
 				if (LOG.isTraceEnabled()) {
@@ -132,20 +215,22 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 				} else {
 					LOG.error("Failed to load MapSource file \"{}\": {}", mapFile, e.getMessage());
 				}
+				for (MapFile mf : mapFiles) {
+					MapFileRegistry.release(mf);
+				}
+				mapFiles.clear();
 				throw e;
 			}
 		}
-		labelInfoCache.purge();
-		tileBasedLabelStore.clear();
-		renderer = new DatabaseRenderer(multiMapDataStore, graphicFactory, labelInfoCache, tileBasedLabelStore, true,
-				true, null);
-		renderThemeFuture = new RenderThemeFuture(graphicFactory, xmlRenderTheme, displayModel);
-
-		// new Thread(renderThemeFuture).start();
-		renderThemeFuture.run();
-		// renderThemeFuture = new RenderThemeFuture(graphicFactory, xmlRenderTheme,
-		// displayModel);
-		// renderThemeFuture.run();
+		return dataStore;
+	}
+
+	private PooledRenderer createPooledRenderer(RendererPool pool) {
+		List<MapFile> mapFiles = new ArrayList<>(mapFileList.size());
+		MultiMapDataStore dataStore = createMultiMapDataStore(mapFiles);
+		DatabaseRenderer databaseRenderer = new DatabaseRenderer(dataStore, AwtGraphicFactory.INSTANCE,
+				pool.labelInfoCache, pool.labelStore, true, true, null);
+		return new PooledRenderer(dataStore, databaseRenderer, mapFiles);
 	}
 
 	protected void loadExternalRenderTheme(File xmlRenderThemeFile) throws FileNotFoundException {
@@ -171,6 +256,7 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 
 		};
 		this.xmlRenderTheme = new ExternalRenderTheme(xmlRenderThemeFile, callBack);
+		this.xmlRenderThemeFile = xmlRenderThemeFile;
 	}
 
 	@Override
@@ -205,21 +291,48 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 
 	public byte[] getTileData(int zoom, int x, int y, LoadMethod loadMethod)
 			throws IOException, UnrecoverableDownloadException, InterruptedException {
-		try (ByteArrayOutputStream buf = new ByteArrayOutputStream(16000)) {
-			BufferedImage image = getTileImage(zoom, x, y, loadMethod);
-			if (image == null) {
+		try {
+			int[] pixels = getTileRaster(zoom, x, y, loadMethod);
+			if (pixels == null) {
 				return null;
 			}
-			if (!ImageIO.write(image, "png", buf)) {
-				throw new RuntimeException("Failed to write PNG image");
+			PngEncoder encoder = pngEncoder;
+			if (encoder == null || encoder.getCompressionLevel() != pngCompressionLevel) {
+				encoder = new PngEncoder(pngCompressionLevel);
+				pngEncoder = encoder;
 			}
-			return buf.toByteArray();
+			int tileSize = mapSpace.getTileSize();
+			return encoder.encode(pixels, tileSize, tileSize);
+		} catch (InterruptedException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RuntimeException(
-					String.format("Failed to render tile {}/{}/z{} - {}", x, y, zoom, e.getMessage()), e);
+					String.format("Failed to render tile %d/%d/z%d - %s", x, y, zoom, e.getMessage()), e);
 		}
 	}
 
+	/**
+	 * Renders the tile and returns the pixels without encoding them.
+	 */
+	public int[] getTileRaster(int zoom, int x, int y, LoadMethod loadMethod)
+			throws IOException, UnrecoverableDownloadException, InterruptedException {
+		BufferedImage image = getTileImage(zoom, x, y, loadMethod);
+		if (image == null) {
+			return null;
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB
+				&& image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+			int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			if (data.length == width * height) {
+				// the rendered image is not used anywhere else
+				return data;
+			}
+		}
+		return image.getRGB(0, 0, width, height, null, 0, width);
+	}
+
 	public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod)
 			throws IOException, UnrecoverableDownloadException, InterruptedException {
 		if (mapFileList == null || xmlRenderTheme == null || loadMethod == LoadMethod.CACHE) {
@@ -230,14 +343,23 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 		RendererJob job;
 		Bitmap tileBitmap;
 		Tile tile = new Tile(x, y, (byte) zoom, 256);
-		job = new RendererJob(tile, multiMapDataStore, renderThemeFuture, displayModel, textScale, transparent, false);
 
-		// We only need the TileCache for correct label rendering, and it does not
-		// actually store the created tile
-		// therefore we can create the cache entry before rendering the tile...
-		synchronized (renderer) {
-			labelInfoCache.put(job, null);
-			tileBitmap = renderer.executeJob(job);
+		RendererPool pool;
+		PooledRenderer pooledRenderer;
+		do {
+			// the pool is replaced and closed on reinitialize
+			pool = rendererPool;
+			pooledRenderer = pool.borrow();
+		} while (pooledRenderer == null);
+		try {
+			job = new RendererJob(tile, pooledRenderer.dataStore, renderThemeFuture, displayModel, textScale,
+					transparent, false);
+			tileBitmap = pooledRenderer.renderer.executeJob(job);
+			// We only need the TileCache for correct label rendering, and it does not
+			// actually store the created tile
+			pool.labelInfoCache.put(job, null);
+		} finally {
+			pool.release(pooledRenderer);
 		}
 		if (tileBitmap == null) {
 			LOG.error("Failed to render image {}/{}/z{}", x, y, zoom);
@@ -282,23 +404,139 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 	@Override
 	public MapsforgeMapSource clone() throws CloneNotSupportedException {
 		MapsforgeMapSource mapSource = (MapsforgeMapSource) super.clone();
-		mapSource.labelInfoCache = new MapsForgeCache();
-		mapSource.tileBasedLabelStore = new MyTileBasedLabelStore(1000);
-		reinitialize();
+		// the renderers with the label cache and the metatile cache belong to the
+		// original map source
+		mapSource.rendererPool = null;
+		mapSource.metatileCache = null;
+		mapSource.cloned = true;
+		// map files and render theme are shared and therefore not loaded again
+		mapSource.reinitialize();
 		return mapSource;
 	}
 
-	private static class MapsForgeCache implements TileCache {
+	/**
+	 * Releases the renderers of a map source created via {@link #clone()} and
+	 * with them the references to the map files in the {@link MapFileRegistry}.
+	 * Has to be called when the clone is no longer used, e.g. after the atlas
+	 * creation. Map sources that have not been cloned are used by the GUI and are
+	 * not affected.
+	 */
+	public void releaseClone() {
+		if (!cloned) {
+			return;
+		}
+		RendererPool pool = rendererPool;
+		if (pool != null) {
+			pool.close();
+		}
+		if (metatileCache != null) {
+			metatileCache.clear();
+		}
+	}
 
-		HashSet<Integer> set = new HashSet<>(10000);
+	/**
+	 * Remembers which tiles have already been rendered. This information is used
+	 * by the {@link DatabaseRenderer} for placing labels that cross tile borders.
+	 * <p>
+	 * The tiles are stored as packed tile keys (see
+	 * {@link TileKeyMap#key(int, int, int)}) in a primitive set. The set is limited
+	 * to <code>capacity</code> entries: If the limit is reached the tile rendered
+	 * least recently is evicted. As atlas tiles are rendered row by row the window
+	 * of recently rendered tiles contains the neighbor tiles as long as the
+	 * capacity exceeds the tile width of a map.
+	 */
+	protected static class MapsForgeCache implements TileCache {
+
+		/**
+		 * Initial number of entries, the cache grows up to its capacity as tiles are
+		 * rendered
+		 */
+		private static final int INITIAL_SIZE = 256;
+
+		private final int capacity;
+		private TileKeyMap set;
+		/**
+		 * Ring buffer with the keys in insertion order
+		 */
+		private long[] window;
+		private int windowStart = 0;
+		private long hits = 0;
+		private long misses = 0;
+		private long evictions = 0;
+
+		public MapsForgeCache(int capacity) {
+			this.capacity = Math.max(16, capacity);
+			allocate();
+		}
 
-		public void put(Job job, TileBitmap tile) {
-			set.add(job.hashCode());
-			// System.out.println("Added: " + job.getKey());
+		private void allocate() {
+			int initialSize = Math.min(capacity, INITIAL_SIZE);
+			set = TileKeyMap.keySet(initialSize);
+			window = new long[initialSize];
+			windowStart = 0;
 		}
 
-		public boolean containsKey(Job job) {
-			return set.contains(job.hashCode());
+		private static long key(Job job) {
+			Tile tile = job.tile;
+			return TileKeyMap.key(tile.zoomLevel, tile.tileX, tile.tileY);
+		}
+
+		/**
+		 * The tile is used as key instead of the job because the jobs of the pooled
+		 * renderers differ in their map data store.
+		 */
+		public synchronized void put(Job job, TileBitmap tile) {
+			long key = key(job);
+			if (set.containsKey(key)) {
+				return;
+			}
+			int size = set.size();
+			if (size == capacity) {
+				set.remove(window[windowStart]);
+				window[windowStart] = key;
+				windowStart = (windowStart + 1) % capacity;
+				evictions++;
+			} else {
+				if (size == window.length) {
+					growWindow();
+				}
+				window[(windowStart + size) % window.length] = key;
+			}
+			set.put(key, 0);
+		}
+
+		private void growWindow() {
+			long[] newWindow = new long[(int) Math.min(capacity, 2L * window.length)];
+			int tail = window.length - windowStart;
+			System.arraycopy(window, windowStart, newWindow, 0, tail);
+			System.arraycopy(window, 0, newWindow, tail, windowStart);
+			window = newWindow;
+			windowStart = 0;
+		}
+
+		public synchronized boolean containsKey(Job job) {
+			if (set.containsKey(key(job))) {
+				hits++;
+				return true;
+			}
+			misses++;
+			return false;
+		}
+
+		public synchronized int size() {
+			return set.size();
+		}
+
+		public synchronized long getHits() {
+			return hits;
+		}
+
+		public synchronized long getMisses() {
+			return misses;
+		}
+
+		public synchronized long getEvictions() {
+			return evictions;
 		}
 
 		public void destroy() {
@@ -309,7 +547,7 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 		}
 
 		public int getCapacity() {
-			throw new NotImplementedException();
+			return capacity;
 		}
 
 		public int getCapacityFirstLevel() {
@@ -332,8 +570,18 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 			throw new NotImplementedException();
 		}
 
-		public void purge() {
-			set.clear();
+		public synchronized void purge() {
+			// release the memory of a cache that has grown
+			allocate();
+			hits = 0;
+			misses = 0;
+			evictions = 0;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("size=%d/%d hits=%d misses=%d evictions=%d", set.size(), capacity, hits, misses,
+					evictions);
 		}
 
 	}
@@ -349,5 +597,123 @@ public class MapsforgeMapSource implements MapSource, FileBasedMapSource, Refres
 			return super.getVisibleItems(upperLeft, lowerRight);
 		}
 
+		@Override
+		public synchronized void storeMapItems(Tile tile, List<MapElementContainer> mapItems) {
+			super.storeMapItems(tile, mapItems);
+		}
+
+		@Override
+		public synchronized void clear() {
+			super.clear();
+		}
+
+	}
+
+	protected static class PooledRenderer {
+
+		final MultiMapDataStore dataStore;
+		final DatabaseRenderer renderer;
+		final List<MapFile> mapFiles;
+
+		PooledRenderer(MultiMapDataStore dataStore, DatabaseRenderer renderer, List<MapFile> mapFiles) {
+			this.dataStore = dataStore;
+			this.renderer = renderer;
+			this.mapFiles = mapFiles;
+		}
+
+		void dispose() {
+			for (MapFile mapFile : mapFiles) {
+				MapFileRegistry.release(mapFile);
+			}
+			mapFiles.clear();
+		}
+
+	}
+
+	/**
+	 * Bounded pool of renderers. Any idle renderer is handed out, new renderers
+	 * are created on demand up to the pool size. All renderers of a pool share one
+	 * label cache and one label store.
+	 */
+	protected class RendererPool {
+
+		private final int size;
+		private final MapsForgeCache labelInfoCache;
+		private final TileBasedLabelStore labelStore;
+		private final ArrayDeque<PooledRenderer> idle = new ArrayDeque<>();
+		private int created = 0;
+		private boolean closed = false;
+
+		RendererPool(int size) {
+			this.size = Math.max(1, size);
+			this.labelInfoCache = new MapsForgeCache(labelCacheSize);
+			this.labelStore = new MyTileBasedLabelStore(1000);
+		}
+
+		synchronized void add(PooledRenderer pooledRenderer) {
+			created++;
+			idle.add(pooledRenderer);
+		}
+
+		/**
+		 * @return an idle renderer or <code>null</code> if the pool has been closed
+		 */
+		PooledRenderer borrow() throws InterruptedException {
+			synchronized (this) {
+				while (true) {
+					if (closed) {
+						return null;
+					}
+					PooledRenderer pooledRenderer = idle.poll();
+					if (pooledRenderer != null) {
+						return pooledRenderer;
+					}
+					if (created < size) {
+						created++;
+						break;
+					}
+					// wait with timeout as no renderer will be returned after the pool has been
+					// closed
+					wait(100);
+				}
+			}
+			// opening the map files may take a while, other threads may continue to
+			// borrow idle renderers in the meantime
+			PooledRenderer pooledRenderer;
+			try {
+				pooledRenderer = createPooledRenderer(this);
+			} catch (RuntimeException | Error e) {
+				synchronized (this) {
+					created--;
+					notifyAll();
+				}
+				throw e;
+			}
+			LOG.debug("Created renderer {} of {} for {}", created, size, getName());
+			return pooledRenderer;
+		}
+
+		synchronized void release(PooledRenderer pooledRenderer) {
+			if (closed) {
+				pooledRenderer.dispose();
+				return;
+			}
+			idle.add(pooledRenderer);
+			notify();
+		}
+
+		/**
+		 * Releases the map files of all idle renderers. Renderers currently in use
+		 * are disposed when they are returned to the pool.
+		 */
+		synchronized void close() {
+			closed = true;
+			for (PooledRenderer pooledRenderer : idle) {
+				pooledRenderer.dispose();
+			}
+			idle.clear();
+			notifyAll();
+		}
+
 	}
 }
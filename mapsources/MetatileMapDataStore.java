@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import org.mapsforge.core.model.BoundingBox;
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.map.datastore.MapReadResult;
+import org.mapsforge.map.datastore.MultiMapDataStore;
+import org.mapsforge.map.datastore.Way;
+import org.mapsforge.map.reader.MapFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * {@link MultiMapDataStore} for the metatile mode of {@link MapsforgeMapSource}:
+ * The map data of a tile is read for the complete metatile (a block of
+ * <code>N x N</code> tiles) containing the tile using one
+ * {@link #readMapData(Tile, Tile)} call. The result is kept in a
+ * {@link MetatileCache} that is shared by all data stores of a map source, so
+ * the remaining tiles of the block are rendered from the cached map data.
+ * <p>
+ * Each tile only gets the ways of the metatile intersecting the tile, extended
+ * by {@link MapFile#wayFilterDistance} like the map file does for a single
+ * tile. Points of interest and the water flag depend on the tile itself and
+ * are read per tile via {@link #readPoiData(Tile)} which does not decode the
+ * ways. At zoom levels below the base zoom level of the map file the way
+ * filter also removes ways of the tile's map blocks that do not intersect the
+ * tile, which are not visible in the tile anyway.
+ */
+public class MetatileMapDataStore extends MultiMapDataStore {
+
+	private final MetatileCache cache;
+
+	public MetatileMapDataStore(DataPolicy dataPolicy, MetatileCache cache) {
+		super(dataPolicy);
+		this.cache = cache;
+	}
+
+	@Override
+	public MapReadResult readMapData(Tile tile) {
+		MapReadResult block = cache.get(tile, (upperLeft, lowerRight) -> super.readMapData(upperLeft, lowerRight));
+		MapReadResult result = super.readPoiData(tile);
+		if (block == null || result == null) {
+			return result;
+		}
+		addWays(result.ways, block.ways, tile);
+		return result;
+	}
+
+	private static void addWays(List<Way> target, List<Way> ways, Tile tile) {
+		if (!MapFile.wayFilterEnabled) {
+			target.addAll(ways);
+			return;
+		}
+		BoundingBox filterBox = tile.getBoundingBox().extendMeters(MapFile.wayFilterDistance);
+		for (Way way : ways) {
+			if (filterBox.intersectsArea(way.latLongs)) {
+				target.add(way);
+			}
+		}
+	}
+
+	interface BlockReader {
+
+		MapReadResult read(Tile upperLeft, Tile lowerRight);
+
+	}
+
+	/**
+	 * Least recently used map data of metatiles. Concurrent requests for the same
+	 * metatile wait for the first read instead of reading the data again.
+	 */
+	public static class MetatileCache {
+
+		private static final Logger log = LoggerFactory.getLogger(MetatileCache.class);
+
+		private final int metatileSize;
+		private final Map<Long, FutureTask<MapReadResult>> blocks;
+		private long reads = 0;
+		private long requests = 0;
+
+		/**
+		 * @param metatileSize
+		 *            number of tiles in x and y direction per metatile
+		 * @param capacity
+		 *            maximum number of metatiles kept in memory
+		 */
+		public MetatileCache(int metatileSize, final int capacity) {
+			this.metatileSize = metatileSize;
+			this.blocks = new LinkedHashMap<Long, FutureTask<MapReadResult>>(16, 0.75f, true) {
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, FutureTask<MapReadResult>> eldest) {
+					return size() > capacity;
+				}
+
+			};
+		}
+
+		MapReadResult get(Tile tile, BlockReader reader) {
+			int blockX = tile.tileX / metatileSize;
+			int blockY = tile.tileY / metatileSize;
+			Long key = TileKeyMap.key(tile.zoomLevel, blockX, blockY);
+			FutureTask<MapReadResult> future;
+			boolean load = false;
+			synchronized (this) {
+				requests++;
+				future = blocks.get(key);
+				if (future == null) {
+					int maxTile = (1 << tile.zoomLevel) - 1;
+					int x1 = blockX * metatileSize;
+					int y1 = blockY * metatileSize;
+					Tile upperLeft = new Tile(x1, y1, tile.zoomLevel, tile.tileSize);
+					Tile lowerRight = new Tile(Math.min(x1 + metatileSize - 1, maxTile),
+							Math.min(y1 + metatileSize - 1, maxTile), tile.zoomLevel, tile.tileSize);
+					future = new FutureTask<>(() -> reader.read(upperLeft, lowerRight));
+					blocks.put(key, future);
+					reads++;
+					load = true;
+				}
+			}
+			if (load) {
+				future.run();
+			}
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for map data", e);
+			} catch (ExecutionException e) {
+				synchronized (this) {
+					blocks.remove(key, future);
+				}
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new RuntimeException(cause);
+			}
+		}
+
+		public synchronized void clear() {
+			if (requests > 0) {
+				log.debug("Metatile cache: {} tile requests, {} metatile reads", requests, reads);
+			}
+			blocks.clear();
+			requests = 0;
+			reads = 0;
+		}
+
+	}
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Minimal PNG encoder for ARGB pixel arrays as an alternative to
+ * <code>ImageIO.write(image, "png", out)</code> for rendered tiles.
+ * <p>
+ * Images without transparent pixels are written as 8 bit RGB, all others as 8
+ * bit RGBA. Every row uses the "Sub" filter. The {@link Deflater} and all
+ * buffers are reused per thread, therefore one encoder instance can be shared
+ * by all tile rendering threads.
+ */
+public class PngEncoder {
+
+	private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+	private static final int IHDR = 0x49484452;
+	private static final int IDAT = 0x49444154;
+	private static final int IEND = 0x49454E44;
+
+	private final int compressionLevel;
+	private final ThreadLocal<EncoderBuffers> buffers = ThreadLocal.withInitial(EncoderBuffers::new);
+
+	/**
+	 * @param compressionLevel
+	 *            deflate compression level from 0 (no compression) to 9 (best
+	 *            compression)
+	 */
+	public PngEncoder(int compressionLevel) {
+		this.compressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * @param argb
+	 *            pixels row by row, at least <code>width * height</code> values
+	 * @return the PNG encoded image
+	 */
+	public byte[] encode(int[] argb, int width, int height) {
+		EncoderBuffers b = buffers.get();
+		int pixelCount = width * height;
+		boolean alpha = false;
+		for (int i = 0; i < pixelCount; i++) {
+			if ((argb[i] >>> 24) != 0xFF) {
+				alpha = true;
+				break;
+			}
+		}
+		int bytesPerPixel = alpha ? 4 : 3;
+		int rawLength = (1 + width * bytesPerPixel) * height;
+		byte[] raw = b.raw(rawLength);
+		int p = 0;
+		for (int y = 0; y < height; y++) {
+			raw[p++] = 1; // filter type "Sub"
+			int prevR = 0;
+			int prevG = 0;
+			int prevB = 0;
+			int prevA = 0;
+			int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				int c = argb[offset + x];
+				int r = (c >> 16) & 0xFF;
+				int g = (c >> 8) & 0xFF;
+				int bl = c & 0xFF;
+				raw[p++] = (byte) (r - prevR);
+				raw[p++] = (byte) (g - prevG);
+				raw[p++] = (byte) (bl - prevB);
+				prevR = r;
+				prevG = g;
+				prevB = bl;
+				if (alpha) {
+					int a = c >>> 24;
+					raw[p++] = (byte) (a - prevA);
+					prevA = a;
+				}
+			}
+		}
+
+		Deflater deflater = b.deflater;
+		deflater.reset();
+		deflater.setLevel(compressionLevel);
+		deflater.setInput(raw, 0, rawLength);
+		deflater.finish();
+		byte[] compressed = b.compressed(rawLength / 2 + 64);
+		int compressedLength = 0;
+		while (!deflater.finished()) {
+			if (compressedLength == compressed.length) {
+				compressed = b.compressed(compressed.length * 2);
+			}
+			compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+		}
+
+		byte[] out = new byte[SIGNATURE.length + 12 + 13 + 12 + compressedLength + 12];
+		System.arraycopy(SIGNATURE, 0, out, 0, SIGNATURE.length);
+		int pos = SIGNATURE.length;
+		byte[] header = b.header;
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8; // bit depth
+		header[9] = (byte) (alpha ? 6 : 2); // color type RGBA or RGB
+		header[10] = 0; // compression method
+		header[11] = 0; // filter method
+		header[12] = 0; // no interlace
+		pos = writeChunk(b.crc, out, pos, IHDR, header, 13);
+		pos = writeChunk(b.crc, out, pos, IDAT, compressed, compressedLength);
+		pos = writeChunk(b.crc, out, pos, IEND, header, 0);
+		return out;
+	}
+
+	private static int writeChunk(CRC32 crc, byte[] out, int pos, int type, byte[] data, int length) {
+		writeInt(out, pos, length);
+		writeInt(out, pos + 4, type);
+		System.arraycopy(data, 0, out, pos + 8, length);
+		crc.reset();
+		crc.update(out, pos + 4, length + 4);
+		writeInt(out, pos + 8 + length, (int) crc.getValue());
+		return pos + 12 + length;
+	}
+
+	private static void writeInt(byte[] b, int pos, int value) {
+		b[pos] = (byte) (value >>> 24);
+		b[pos + 1] = (byte) (value >>> 16);
+		b[pos + 2] = (byte) (value >>> 8);
+		b[pos + 3] = (byte) value;
+	}
+
+	private static class EncoderBuffers {
+
+		final Deflater deflater = new Deflater();
+		final CRC32 crc = new CRC32();
+		final byte[] header = new byte[13];
+		byte[] raw = new byte[0];
+		byte[] compressed = new byte[0];
+
+		byte[] raw(int length) {
+			if (raw.length < length) {
+				raw = new byte[length];
+			}
+			return raw;
+		}
+
+		byte[] compressed(int length) {
+			if (compressed.length < length) {
+				compressed = Arrays.copyOf(compressed, length);
+			}
+			return compressed;
+		}
+
+	}
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import org.mapsforge.core.graphics.GraphicFactory;
+import org.mapsforge.map.model.DisplayModel;
+import org.mapsforge.map.rendertheme.InternalRenderTheme;
+import org.mapsforge.map.rendertheme.XmlRenderTheme;
+import org.mapsforge.map.rendertheme.rule.RenderThemeFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shares parsed Mapsforge render themes between a {@link MapsforgeMapSource},
+ * its clones and reinitializations. Themes are parsed on a background thread -
+ * the renderer waits for the {@link RenderThemeFuture} on the first tile only.
+ * <p>
+ * A theme is identified by its source (internal theme name or canonical path
+ * and modification time of the theme file), the scale factor of the
+ * {@link DisplayModel} and the text scale. A modified theme file is therefore
+ * parsed again.
+ * <p>
+ * Each map source has its own cache that is shared with its clones only: The
+ * render theme is modified while rendering (text sizes) and the style menu
+ * callback of an external theme belongs to the map source that parsed it.
+ */
+public class RenderThemeCache {
+
+	private static final Logger log = LoggerFactory.getLogger(RenderThemeCache.class);
+
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "Mapsforge render theme loader");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final Map<String, RenderThemeFuture> themes = new HashMap<>();
+
+	/**
+	 * @param xmlRenderThemeFile
+	 *            the file <code>xmlRenderTheme</code> has been loaded from or
+	 *            <code>null</code> for internal themes
+	 * @return a shared render theme future that is already prepared or in
+	 *         preparation
+	 */
+	public synchronized RenderThemeFuture getRenderThemeFuture(GraphicFactory graphicFactory,
+			XmlRenderTheme xmlRenderTheme, File xmlRenderThemeFile, DisplayModel displayModel, float textScale) {
+		String source = getSourceKey(xmlRenderTheme, xmlRenderThemeFile);
+		if (source == null) {
+			// unknown theme type - no caching
+			return prepare(new RenderThemeFuture(graphicFactory, xmlRenderTheme, displayModel), xmlRenderTheme);
+		}
+		String key = source + "|" + displayModel.getScaleFactor() + "|" + textScale;
+		RenderThemeFuture future = themes.get(key);
+		if (future != null) {
+			log.trace("Using cached render theme {}", key);
+			return future;
+		}
+		// remove outdated versions of the theme file
+		String sourcePrefix = getSourcePrefix(xmlRenderTheme, xmlRenderThemeFile);
+		Iterator<String> it = themes.keySet().iterator();
+		while (it.hasNext()) {
+			String k = it.next();
+			if (sourcePrefix != null && k.startsWith(sourcePrefix) && !k.startsWith(source + "|")) {
+				log.debug("Removing outdated render theme {}", k);
+				it.remove();
+			}
+		}
+		future = prepare(new RenderThemeFuture(graphicFactory, xmlRenderTheme, displayModel), xmlRenderTheme);
+		themes.put(key, future);
+		return future;
+	}
+
+	private static RenderThemeFuture prepare(RenderThemeFuture future, XmlRenderTheme xmlRenderTheme) {
+		log.debug("Preparing render theme {}", xmlRenderTheme);
+		EXECUTOR.execute(future);
+		return future;
+	}
+
+	private static String getSourcePrefix(XmlRenderTheme xmlRenderTheme, File xmlRenderThemeFile) {
+		if (xmlRenderTheme instanceof InternalRenderTheme) {
+			return "internal:" + ((InternalRenderTheme) xmlRenderTheme).name() + "|";
+		}
+		if (xmlRenderThemeFile == null) {
+			return null;
+		}
+		try {
+			return "file:" + xmlRenderThemeFile.getCanonicalPath() + "|";
+		} catch (IOException e) {
+			return "file:" + xmlRenderThemeFile.getAbsolutePath() + "|";
+		}
+	}
+
+	private static String getSourceKey(XmlRenderTheme xmlRenderTheme, File xmlRenderThemeFile) {
+		String prefix = getSourcePrefix(xmlRenderTheme, xmlRenderThemeFile);
+		if (prefix == null) {
+			return null;
+		}
+		if (xmlRenderThemeFile == null) {
+			return prefix.substring(0, prefix.length() - 1);
+		}
+		return prefix + xmlRenderThemeFile.lastModified();
+	}
+}
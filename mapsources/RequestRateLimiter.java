@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the number of requests per second. Up to one second
+ * worth of requests may be sent as a burst.
+ * <p>
+ * Callers that find the bucket empty reserve a token in advance and sleep
+ * until it becomes available, therefore waiting callers are served in the
+ * order they arrived.
+ */
+public class RequestRateLimiter {
+
+	private final double requestsPerSecond;
+	private final double capacity;
+	private double tokens;
+	private long lastRefill;
+
+	public RequestRateLimiter(double requestsPerSecond) {
+		if (requestsPerSecond <= 0) {
+			throw new IllegalArgumentException("Invalid request rate: " + requestsPerSecond);
+		}
+		this.requestsPerSecond = requestsPerSecond;
+		this.capacity = Math.max(1, requestsPerSecond);
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public void acquire() throws InterruptedException {
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * requestsPerSecond / 1e9);
+			lastRefill = now;
+			tokens -= 1;
+			if (tokens >= 0) {
+				return;
+			}
+			wait = (long) (-tokens / requestsPerSecond * 1e9);
+		}
+		TimeUnit.NANOSECONDS.sleep(wait);
+	}
+
+	public double getRequestsPerSecond() {
+		return requestsPerSecond;
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+/**
+ * Bloom filter for packed tile keys (see {@link TileKeyMap#key(int, int, int)}).
+ * With 10 bits and 7 hash functions per tile approximately 1% of the missing
+ * tiles are reported as possibly existing.
+ * <p>
+ * The filter is not synchronized. It has to be filled completely before it is
+ * published to other threads.
+ */
+public class TileBloomFilter {
+
+	private static final int BITS_PER_TILE = 10;
+	private static final int HASH_COUNT = 7;
+	private static final long MAX_BITS = 1L << 30;
+
+	private final long[] bits;
+	private final long bitCount;
+
+	/**
+	 * @param expectedTiles
+	 *            number of tiles that will be added
+	 */
+	public TileBloomFilter(long expectedTiles) {
+		long n = Math.min(MAX_BITS, Math.max(64, expectedTiles * BITS_PER_TILE));
+		bits = new long[(int) ((n + 63) >>> 6)];
+		bitCount = (long) bits.length << 6;
+	}
+
+	public void add(long tileKey) {
+		long h1 = mix(tileKey);
+		long h2 = mix(h1) | 1;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	public void add(int zoom, int x, int y) {
+		add(TileKeyMap.key(zoom, x, y));
+	}
+
+	/**
+	 * @return <code>false</code> if the tile has definitely not been added
+	 */
+	public boolean mightContain(long tileKey) {
+		long h1 = mix(tileKey);
+		long h2 = mix(h1) | 1;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean mightContain(int zoom, int x, int y) {
+		return mightContain(TileKeyMap.key(zoom, x, y));
+	}
+
+	/**
+	 * @return size of the filter in bytes
+	 */
+	public long getSize() {
+		return (long) bits.length * 8;
+	}
+
+	/**
+	 * 64 bit finalizer of MurmurHash3
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB93FE53F1A49L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
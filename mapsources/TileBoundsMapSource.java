@@ -14,23 +14,24 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <https://www.gnu.org/licenses/>.
  ******************************************************************************/
-package mobac.mapsources.custom.aqm;
+package mobac.mapsources;
+
+import mobac.program.interfaces.MapSource;
+
+import java.awt.Rectangle;
 
 /**
- * Alpine Quest Map : https://alpinequest.net/ Developer :
- * ph-t@users.sourceforge.net
+ * A map source covering only a part of the world, e.g. a local regional map,
+ * that knows the area of its tiles per zoom level.
  */
-public class MetaDataTile {
-	public final long byteIndex;
-	public final String name;
-
-	MetaDataTile(long byteIndex, String name) {
-		this.byteIndex = byteIndex;
-		this.name = name;
-	}
+public interface TileBoundsMapSource extends MapSource {
 
-	MetaDataTile(String byteIndex, String name) {
-		this(Long.parseLong(byteIndex), name);
-	}
+	/**
+	 * @return the tile numbers of the area containing all tiles of the zoom level
+	 *         (<code>x, y</code> of the top left tile, <code>width, height</code>
+	 *         in tiles), an empty rectangle if there are no tiles on this zoom
+	 *         level or <code>null</code> if the area is unknown
+	 */
+	Rectangle getTileBounds(int zoom);
 
 }
@@ -14,34 +14,24 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <https://www.gnu.org/licenses/>.
  ******************************************************************************/
-package mobac.mapsources.custom.aqm;
+package mobac.mapsources;
+
+import mobac.program.interfaces.MapSource;
 
 /**
- * Alpine Quest Map : https://alpinequest.net/ Developer :
- * ph-t@users.sourceforge.net
+ * A map source that knows which tiles it contains, e.g. from an index of a
+ * local tile archive. Allows to skip requests for tiles that do not exist
+ * without accessing the underlying files or database.
  */
-public class AqmTile {
-	public final String name;
-	public final long tileByteIndex;
-	public final int x;
-	public final int y;
-
-	public byte[] bTile;
-
-	AqmTile(String name, long tileByteIndex) {
-		this.name = name;
-		this.tileByteIndex = tileByteIndex;
-
-		String sx = name.replaceFirst("([0-9]+)_([0-9]+)", "$1");
-		this.x = Integer.parseInt(sx);
-
-		String sy = name.replaceFirst("([0-9]+)_([0-9]+)", "$2");
-		this.y = Integer.parseInt(sy);
-	}
+public interface TileCoverageMapSource extends MapSource {
 
-	AqmTile(String name, byte[] bTile, long tileByteIndex) {
-		this(name, tileByteIndex);
-		this.bTile = bTile;
-	}
+	/**
+	 * Must be fast - it is called before every tile request.
+	 *
+	 * @return <code>false</code> if the map source definitely does not contain
+	 *         the specified tile, <code>true</code> if it may contain the tile
+	 *         (including the case that the coverage is not yet known)
+	 */
+	boolean mayContainTile(int zoom, int x, int y);
 
 }
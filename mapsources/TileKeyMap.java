@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from tile coordinates to a <code>long</code> value (e.g. a file
+ * offset or an archive number) that only uses two primitive arrays. Tile
+ * coordinates are packed into one <code>long</code> key via
+ * {@link #key(int, int, int)}.
+ * <p>
+ * The map uses open addressing with linear probing. It is not synchronized - if
+ * the map is modified after it has been published to other threads external
+ * synchronization is required.
+ */
+public class TileKeyMap {
+
+	/**
+	 * Never a valid key as it would require a zoom level of 63
+	 */
+	private static final long EMPTY = -1L;
+
+	private static final int COORDINATE_BITS = 29;
+	private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private final boolean storeValues;
+	private long[] keys;
+	private long[] values;
+	private int mask;
+	private int size = 0;
+	private int resizeThreshold;
+
+	public TileKeyMap() {
+		this(16);
+	}
+
+	public TileKeyMap(int expectedSize) {
+		this(expectedSize, true);
+	}
+
+	private TileKeyMap(int expectedSize, boolean storeValues) {
+		this.storeValues = storeValues;
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Creates a map that only records the presence of keys and does not allocate
+	 * the value array. Values passed to {@link #put(long, long)} are ignored and
+	 * {@link #get(long, long)} returns 0 for contained keys.
+	 */
+	public static TileKeyMap keySet(int expectedSize) {
+		return new TileKeyMap(expectedSize, false);
+	}
+
+	/**
+	 * Packs the tile coordinates into one key. Supports zoom levels up to 29.
+	 */
+	public static long key(int zoom, int x, int y) {
+		return ((long) zoom << (2 * COORDINATE_BITS)) | (((long) x & COORDINATE_MASK) << COORDINATE_BITS)
+				| ((long) y & COORDINATE_MASK);
+	}
+
+	public static int zoom(long key) {
+		return (int) (key >>> (2 * COORDINATE_BITS));
+	}
+
+	public static int x(long key) {
+		return (int) ((key >>> COORDINATE_BITS) & COORDINATE_MASK);
+	}
+
+	public static int y(long key) {
+		return (int) (key & COORDINATE_MASK);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(long key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * @return the value stored for <code>key</code> or <code>defaultValue</code> if
+	 *         the map does not contain the key
+	 */
+	public long get(long key, long defaultValue) {
+		int index = indexOf(key);
+		if (index < 0) {
+			return defaultValue;
+		}
+		return storeValues ? values[index] : 0;
+	}
+
+	public void put(long key, long value) {
+		int index = slot(key);
+		while (keys[index] != EMPTY) {
+			if (keys[index] == key) {
+				if (storeValues) {
+					values[index] = value;
+				}
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		if (storeValues) {
+			values[index] = value;
+		}
+		if (++size > resizeThreshold) {
+			resize(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Stores the value only if the map does not already contain the key.
+	 *
+	 * @return <code>true</code> if the value has been stored
+	 */
+	public boolean putIfAbsent(long key, long value) {
+		if (containsKey(key)) {
+			return false;
+		}
+		put(key, value);
+		return true;
+	}
+
+	/**
+	 * Removes the key by shifting following entries of the same probe sequence
+	 * back, so that no tombstones are required.
+	 *
+	 * @return <code>true</code> if the map contained the key
+	 */
+	public boolean remove(long key) {
+		int gap = indexOf(key);
+		if (gap < 0) {
+			return false;
+		}
+		int index = (gap + 1) & mask;
+		long k;
+		while ((k = keys[index]) != EMPTY) {
+			int home = slot(k);
+			// the entry may only be moved if the gap is located between its home slot
+			// and its current slot
+			if (((index - home) & mask) >= ((index - gap) & mask)) {
+				keys[gap] = k;
+				if (storeValues) {
+					values[gap] = values[index];
+				}
+				gap = index;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[gap] = EMPTY;
+		size--;
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * @return a new array containing all keys of this map in no specific order
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int i = 0;
+		for (long key : keys) {
+			if (key != EMPTY) {
+				result[i++] = key;
+			}
+		}
+		return result;
+	}
+
+	private int indexOf(long key) {
+		int index = slot(key);
+		long k;
+		while ((k = keys[index]) != EMPTY) {
+			if (k == key) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private void resize(int newCapacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		allocate(newCapacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != EMPTY) {
+				int index = slot(key);
+				while (keys[index] != EMPTY) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = key;
+				if (storeValues) {
+					values[index] = oldValues[i];
+				}
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = storeValues ? new long[capacity] : null;
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		long required = (long) Math.ceil(Math.max(expectedSize, 4) / LOAD_FACTOR);
+		if (required > (1 << 30)) {
+			throw new IllegalArgumentException("Tile map too large: " + expectedSize);
+		}
+		return Integer.highestOneBit((int) required - 1) << 1;
+	}
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import mobac.program.interfaces.MapSource;
+
+import java.io.IOException;
+
+/**
+ * A map source that is able to load all tiles of a rectangular tile range at
+ * once, e.g. using one database query instead of one query per tile.
+ */
+public interface TileRangeMapSource extends MapSource {
+
+	/**
+	 * Loads all tiles within the specified tile range (all coordinates inclusive)
+	 * and passes them to <code>consumer</code> in no specific order. Tiles that do
+	 * not exist in the map source are skipped.
+	 */
+	void getTileDataRange(int zoom, int minX, int minY, int maxX, int maxY, TileRangeConsumer consumer)
+			throws IOException, InterruptedException;
+
+	/**
+	 * Enables block-wise read ahead for the specified tile range. Until
+	 * {@link #clearReadAheadArea()} is called, tiles requested via
+	 * {@link #getTileData(int, int, int, LoadMethod)} within this range are served
+	 * from blocks loaded by {@link #getTileDataRange(int, int, int, int, int, TileRangeConsumer)}.
+	 */
+	void setReadAheadArea(int zoom, int minX, int minY, int maxX, int maxY);
+
+	void clearReadAheadArea();
+
+	interface TileRangeConsumer {
+
+		void tileLoaded(int x, int y, byte[] data) throws IOException;
+
+	}
+}
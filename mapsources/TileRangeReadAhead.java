@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Serves single tile requests of a {@link TileRangeMapSource} from square
+ * blocks of tiles that are loaded with one range request each. The most
+ * recently used blocks are kept in memory - enough blocks to cover one complete
+ * row or column of blocks of the read ahead area. Therefore each block is only
+ * loaded once regardless if the tiles are processed row by row or column by
+ * column.
+ * <p>
+ * Blocks are loaded outside of the lock guarding the block map: threads
+ * requesting tiles of other blocks or of already loaded blocks are not delayed
+ * by a running block load, threads requesting the same block wait for it.
+ */
+public class TileRangeReadAhead {
+
+	private static final Logger log = LoggerFactory.getLogger(TileRangeReadAhead.class);
+
+	private final TileRangeMapSource mapSource;
+	private final int zoom;
+	private final int minX;
+	private final int minY;
+	private final int maxX;
+	private final int maxY;
+	private final int blockSize;
+	private final Map<Long, FutureTask<Map<Long, byte[]>>> blocks;
+
+	public TileRangeReadAhead(TileRangeMapSource mapSource, int zoom, int minX, int minY, int maxX, int maxY,
+			int blockSize) {
+		this.mapSource = mapSource;
+		this.zoom = zoom;
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.blockSize = Math.max(1, blockSize);
+		int blocksX = (maxX - minX) / this.blockSize + 1;
+		int blocksY = (maxY - minY) / this.blockSize + 1;
+		final int maxBlocks = Math.max(blocksX, blocksY) + 1;
+		blocks = new LinkedHashMap<Long, FutureTask<Map<Long, byte[]>>>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, FutureTask<Map<Long, byte[]>>> eldest) {
+				return size() > maxBlocks;
+			}
+
+		};
+	}
+
+	public boolean covers(int zoom, int x, int y) {
+		return this.zoom == zoom && x >= minX && x <= maxX && y >= minY && y <= maxY;
+	}
+
+	/**
+	 * @return the tile data or <code>null</code> if the tile does not exist in the
+	 *         map source
+	 */
+	public byte[] getTileData(int x, int y) throws IOException, InterruptedException {
+		final int blockX = (x - minX) / blockSize;
+		final int blockY = (y - minY) / blockSize;
+		Long blockKey = tileKey(blockX, blockY);
+		FutureTask<Map<Long, byte[]>> block;
+		boolean load = false;
+		synchronized (blocks) {
+			block = blocks.get(blockKey);
+			if (block == null) {
+				block = new FutureTask<>(() -> loadBlock(blockX, blockY));
+				blocks.put(blockKey, block);
+				load = true;
+			}
+		}
+		if (load) {
+			block.run();
+		}
+		try {
+			return block.get().get(tileKey(x, y));
+		} catch (ExecutionException e) {
+			// do not keep the failed block, the next request loads it again
+			synchronized (blocks) {
+				if (blocks.get(blockKey) == block) {
+					blocks.remove(blockKey);
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof InterruptedException) {
+				throw (InterruptedException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private Map<Long, byte[]> loadBlock(int blockX, int blockY) throws IOException, InterruptedException {
+		int x1 = minX + blockX * blockSize;
+		int y1 = minY + blockY * blockSize;
+		int x2 = Math.min(x1 + blockSize - 1, maxX);
+		int y2 = Math.min(y1 + blockSize - 1, maxY);
+		final Map<Long, byte[]> block = new HashMap<>();
+		mapSource.getTileDataRange(zoom, x1, y1, x2, y2, (x, y, data) -> block.put(tileKey(x, y), data));
+		if (log.isTraceEnabled()) {
+			log.trace("Read ahead block x={}-{} y={}-{} z={} of {}: {} tiles", x1, x2, y1, y2, zoom, mapSource,
+					block.size());
+		}
+		return block;
+	}
+
+	private static long tileKey(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import mobac.exceptions.TileException;
+import mobac.program.interfaces.MapSource;
+
+import java.io.IOException;
+
+/**
+ * A map source that renders its tiles locally and is able to hand over the
+ * rendered pixels directly. Atlas formats that re-encode the tiles anyway can
+ * use {@link #getTileRaster(int, int, int, LoadMethod)} and skip encoding and
+ * decoding the tile image.
+ */
+public interface TileRasterMapSource extends MapSource {
+
+	/**
+	 * @return the pixels of the tile in ARGB format row by row - the tile is a
+	 *         square with the tile size of the map space (see
+	 *         {@link mobac.program.interfaces.MapSpace#getTileSize()}) - or
+	 *         <code>null</code> if the tile is not available
+	 */
+	int[] getTileRaster(int zoom, int x, int y, LoadMethod loadMethod)
+			throws IOException, TileException, InterruptedException;
+
+}
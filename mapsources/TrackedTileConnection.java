@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.security.Permission;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps a regular {@link HttpURLConnection} and remembers whether the response
+ * has been requested. Only then the response code can be queried afterwards
+ * without sending the request again: {@link HttpURLConnection} keeps the
+ * response or the failure of the first attempt to read it.
+ * <p>
+ * The wrapper is a {@link HttpsURLConnection}, so that map sources can set
+ * their SSL socket factory. The SSL specific methods are ignored or fail with
+ * an {@link IllegalStateException} if the wrapped connection does not use
+ * HTTPS.
+ */
+class TrackedTileConnection extends HttpsURLConnection {
+
+	private final HttpURLConnection connection;
+	private volatile boolean responseRequested = false;
+
+	TrackedTileConnection(HttpURLConnection connection) {
+		super(connection.getURL());
+		this.connection = connection;
+	}
+
+	/**
+	 * @return the response code or -1 if the response has not been requested or
+	 *         no response has been received
+	 */
+	int getReceivedResponseCode() {
+		if (!responseRequested) {
+			return -1;
+		}
+		try {
+			return connection.getResponseCode();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the header value or <code>null</code> if the response has not been
+	 *         requested
+	 */
+	String getReceivedHeaderField(String name) {
+		return responseRequested ? connection.getHeaderField(name) : null;
+	}
+
+	private HttpsURLConnection https() {
+		if (!(connection instanceof HttpsURLConnection)) {
+			throw new IllegalStateException("Not a HTTPS connection: " + url);
+		}
+		return (HttpsURLConnection) connection;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		connection.connect();
+	}
+
+	@Override
+	public void disconnect() {
+		connection.disconnect();
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return connection.usingProxy();
+	}
+
+	@Override
+	public URL getURL() {
+		return connection.getURL();
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		responseRequested = true;
+		return connection.getResponseCode();
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		responseRequested = true;
+		return connection.getResponseMessage();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		responseRequested = true;
+		return connection.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return connection.getOutputStream();
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return connection.getErrorStream();
+	}
+
+	@Override
+	public String getHeaderField(String name) {
+		responseRequested = true;
+		return connection.getHeaderField(name);
+	}
+
+	@Override
+	public String getHeaderField(int n) {
+		responseRequested = true;
+		return connection.getHeaderField(n);
+	}
+
+	@Override
+	public String getHeaderFieldKey(int n) {
+		responseRequested = true;
+		return connection.getHeaderFieldKey(n);
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		responseRequested = true;
+		return connection.getHeaderFields();
+	}
+
+	@Override
+	public void setRequestMethod(String method) throws ProtocolException {
+		connection.setRequestMethod(method);
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return connection.getRequestMethod();
+	}
+
+	@Override
+	public void setRequestProperty(String key, String value) {
+		connection.setRequestProperty(key, value);
+	}
+
+	@Override
+	public void addRequestProperty(String key, String value) {
+		connection.addRequestProperty(key, value);
+	}
+
+	@Override
+	public String getRequestProperty(String key) {
+		return connection.getRequestProperty(key);
+	}
+
+	@Override
+	public Map<String, List<String>> getRequestProperties() {
+		return connection.getRequestProperties();
+	}
+
+	@Override
+	public void setConnectTimeout(int timeout) {
+		connection.setConnectTimeout(timeout);
+	}
+
+	@Override
+	public int getConnectTimeout() {
+		return connection.getConnectTimeout();
+	}
+
+	@Override
+	public void setReadTimeout(int timeout) {
+		connection.setReadTimeout(timeout);
+	}
+
+	@Override
+	public int getReadTimeout() {
+		return connection.getReadTimeout();
+	}
+
+	@Override
+	public void setInstanceFollowRedirects(boolean followRedirects) {
+		connection.setInstanceFollowRedirects(followRedirects);
+	}
+
+	@Override
+	public boolean getInstanceFollowRedirects() {
+		return connection.getInstanceFollowRedirects();
+	}
+
+	@Override
+	public void setUseCaches(boolean useCaches) {
+		connection.setUseCaches(useCaches);
+	}
+
+	@Override
+	public boolean getUseCaches() {
+		return connection.getUseCaches();
+	}
+
+	@Override
+	public void setIfModifiedSince(long ifModifiedSince) {
+		connection.setIfModifiedSince(ifModifiedSince);
+	}
+
+	@Override
+	public long getIfModifiedSince() {
+		return connection.getIfModifiedSince();
+	}
+
+	@Override
+	public void setDoInput(boolean doInput) {
+		connection.setDoInput(doInput);
+	}
+
+	@Override
+	public boolean getDoInput() {
+		return connection.getDoInput();
+	}
+
+	@Override
+	public void setDoOutput(boolean doOutput) {
+		connection.setDoOutput(doOutput);
+	}
+
+	@Override
+	public boolean getDoOutput() {
+		return connection.getDoOutput();
+	}
+
+	@Override
+	public void setAllowUserInteraction(boolean allowUserInteraction) {
+		connection.setAllowUserInteraction(allowUserInteraction);
+	}
+
+	@Override
+	public boolean getAllowUserInteraction() {
+		return connection.getAllowUserInteraction();
+	}
+
+	@Override
+	public void setChunkedStreamingMode(int chunkLength) {
+		connection.setChunkedStreamingMode(chunkLength);
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(int contentLength) {
+		connection.setFixedLengthStreamingMode(contentLength);
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(long contentLength) {
+		connection.setFixedLengthStreamingMode(contentLength);
+	}
+
+	@Override
+	public Permission getPermission() throws IOException {
+		return connection.getPermission();
+	}
+
+	@Override
+	public void setSSLSocketFactory(SSLSocketFactory sf) {
+		if (connection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) connection).setSSLSocketFactory(sf);
+		}
+	}
+
+	@Override
+	public SSLSocketFactory getSSLSocketFactory() {
+		return (connection instanceof HttpsURLConnection)
+				? ((HttpsURLConnection) connection).getSSLSocketFactory()
+				: null;
+	}
+
+	@Override
+	public void setHostnameVerifier(HostnameVerifier v) {
+		if (connection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) connection).setHostnameVerifier(v);
+		}
+	}
+
+	@Override
+	public HostnameVerifier getHostnameVerifier() {
+		return (connection instanceof HttpsURLConnection)
+				? ((HttpsURLConnection) connection).getHostnameVerifier()
+				: null;
+	}
+
+	@Override
+	public String getCipherSuite() {
+		return https().getCipherSuite();
+	}
+
+	@Override
+	public Certificate[] getLocalCertificates() {
+		return https().getLocalCertificates();
+	}
+
+	@Override
+	public Certificate[] getServerCertificates() throws SSLPeerUnverifiedException {
+		return https().getServerCertificates();
+	}
+
+	@Override
+	public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+		return https().getPeerPrincipal();
+	}
+
+	@Override
+	public Principal getLocalPrincipal() {
+		return https().getLocalPrincipal();
+	}
+
+	@Override
+	public String toString() {
+		return connection.toString();
+	}
+
+}
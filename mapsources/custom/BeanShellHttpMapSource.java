@@ -40,7 +40,6 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
@@ -176,7 +175,7 @@ public class BeanShellHttpMapSource extends AbstractHttpMapSource
 		HttpURLConnection conn = null;
 		try {
 			String url = getTileUrl(zoom, tilex, tiley);
-			conn = (HttpURLConnection) new URL(url).openConnection();
+			conn = openTileConnection(url);
 		} catch (IOException e) {
 			throw e;
 		} catch (Exception e) {
@@ -231,6 +230,12 @@ public class BeanShellHttpMapSource extends AbstractHttpMapSource
 		}
 	}
 
+	@Override
+	public boolean isTileImageDecodedData() {
+		// decoding errors are ignored as well
+		return !ignoreError;
+	}
+
 	public boolean testCode() throws IOException {
 		return (getTileUrlConnection(minZoom, 0, 0) != null);
 	}
@@ -23,6 +23,8 @@ import jakarta.xml.bind.annotation.XmlRootElement;
 import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import mobac.exceptions.MapSourceInitializationException;
 import mobac.exceptions.TileException;
+import mobac.mapsources.TileBoundsMapSource;
+import mobac.mapsources.TileCoverageMapSource;
 import mobac.program.interfaces.FileBasedMapSource;
 import mobac.program.interfaces.InitializableMapSource;
 import mobac.program.interfaces.MapSource;
@@ -32,12 +34,13 @@ import mobac.program.model.MapSourceLoaderInfo;
 import mobac.program.model.TileImageType;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.ArrayList;
 
 @XmlRootElement(name = "combined")
-public class CustomCombinedMapSource implements InitializableMapSource {
+public class CustomCombinedMapSource implements InitializableMapSource, TileCoverageMapSource {
 
 	@XmlElementWrapper(name = "regionalMapSource")
 	@XmlElements({@XmlElement(name = "mapSource", type = StandardMapSourceLayer.class),
@@ -83,26 +86,58 @@ public class CustomCombinedMapSource implements InitializableMapSource {
 			throw new MapSourceInitializationException(
 					"Invalid map source definition: multiple regional or base maps defined.");
 		}
-		if (!(regionalMapSource instanceof FileBasedMapSource)) {
+		if (!(regionalMapSource.get(0) instanceof FileBasedMapSource)) {
 			throw new MapSourceInitializationException(
 					"Invalid regional map file format. Only file based local maps are supported!");
 		}
-		((InitializableMapSource) regionalMapSource).initialize();
-		if (baseMapSource instanceof InitializableMapSource) {
-			((InitializableMapSource) baseMapSource).initialize();
+		if (regionalMapSource.get(0) instanceof InitializableMapSource) {
+			((InitializableMapSource) regionalMapSource.get(0)).initialize();
 		}
+		if (baseMapSource.get(0) instanceof InitializableMapSource) {
+			((InitializableMapSource) baseMapSource.get(0)).initialize();
+		}
+	}
+
+	/**
+	 * Checks the tile bounds of the regional map source first, so that tiles far
+	 * away from the region are rejected without further lookup.
+	 *
+	 * @return <code>false</code> if the regional map source is known to not
+	 *         contain the tile
+	 */
+	protected boolean regionalMayContainTile(int zoom, int x, int y) {
+		MapSource regional = regionalMapSource.get(0);
+		if (regional instanceof TileBoundsMapSource) {
+			Rectangle bounds = ((TileBoundsMapSource) regional).getTileBounds(zoom);
+			if (bounds != null && !bounds.contains(x, y)) {
+				return false;
+			}
+		}
+		return !(regional instanceof TileCoverageMapSource)
+				|| ((TileCoverageMapSource) regional).mayContainTile(zoom, x, y);
+	}
+
+	@Override
+	public boolean mayContainTile(int zoom, int x, int y) {
+		if (regionalMayContainTile(zoom, x, y)) {
+			return true;
+		}
+		MapSource base = baseMapSource.get(0);
+		return !(base instanceof TileCoverageMapSource) || ((TileCoverageMapSource) base).mayContainTile(zoom, x, y);
 	}
 
 	@Override
 	public byte[] getTileData(int zoom, int x, int y, LoadMethod loadMethod)
 			throws IOException, TileException, InterruptedException {
-		try {
-			byte[] data = regionalMapSource.get(0).getTileData(zoom, x, y, loadMethod);
-			if (data != null) {
-				return data;
+		if (regionalMayContainTile(zoom, x, y)) {
+			try {
+				byte[] data = regionalMapSource.get(0).getTileData(zoom, x, y, loadMethod);
+				if (data != null) {
+					return data;
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
 			}
-		} catch (Exception e) {
-			throw new RuntimeException(e);
 		}
 		return baseMapSource.get(0).getTileData(zoom, x, y, loadMethod);
 	}
@@ -110,13 +145,15 @@ public class CustomCombinedMapSource implements InitializableMapSource {
 	@Override
 	public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod)
 			throws IOException, TileException, InterruptedException {
-		try {
-			BufferedImage image = regionalMapSource.get(0).getTileImage(zoom, x, y, loadMethod);
-			if (image != null) {
-				return image;
+		if (regionalMayContainTile(zoom, x, y)) {
+			try {
+				BufferedImage image = regionalMapSource.get(0).getTileImage(zoom, x, y, loadMethod);
+				if (image != null) {
+					return image;
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
 			}
-		} catch (Exception e) {
-			throw new RuntimeException(e);
 		}
 		return baseMapSource.get(0).getTileImage(zoom, x, y, loadMethod);
 	}
@@ -21,6 +21,10 @@ import jakarta.xml.bind.annotation.XmlRootElement;
 import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import mobac.exceptions.MapSourceInitializationException;
 import mobac.exceptions.TileException;
+import mobac.mapsources.EncodedTileMapSource;
+import mobac.mapsources.MapSourceTools;
+import mobac.mapsources.TileBoundsMapSource;
+import mobac.mapsources.custom.aqm.AqmLevel;
 import mobac.mapsources.custom.aqm.AqmMap;
 import mobac.mapsources.mapspace.MapSpaceFactory;
 import mobac.program.interfaces.InitializableMapSource;
@@ -34,6 +38,7 @@ import mobac.utilities.I18nUtils;
 import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -45,7 +50,12 @@ import java.io.IOException;
  */
 
 @XmlRootElement(name = "localAQMfile")
-public class CustomLocalAqmMapSource implements InitializableMapSource, MapSourceInitialDisplayPosition {
+public class CustomLocalAqmMapSource
+		implements
+			InitializableMapSource,
+			MapSourceInitialDisplayPosition,
+			TileBoundsMapSource,
+			EncodedTileMapSource {
 
 	private final MapSpace mapSpace = MapSpaceFactory.getInstance(256, true); // todo créer avec les données AQM
 	@XmlElement(nillable = false, defaultValue = "CustomLocalAQMfile")
@@ -112,6 +122,32 @@ public class CustomLocalAqmMapSource implements InitializableMapSource, MapSourc
 		return map.getByteTile(zoom, x, inverted_y);
 	}
 
+	/**
+	 * Union of the tile ranges of all levels of the zoom level. The AQM y numbers
+	 * are inverted like in {@link #getTileData(int, int, int, LoadMethod)}.
+	 */
+	@Override
+	public Rectangle getTileBounds(int zoom) {
+		if (map == null) {
+			return null;
+		}
+		int tiles = 1 << zoom;
+		Rectangle bounds = new Rectangle();
+		for (AqmLevel level : map.getLevelList()) {
+			if (level.z != zoom) {
+				continue;
+			}
+			Rectangle b = MapSourceTools.createTileBounds(zoom, level.xtmin, tiles - level.ytmax, level.xtmax,
+					tiles - level.ytmin, false);
+			if (bounds.isEmpty()) {
+				bounds = b;
+			} else if (!b.isEmpty()) {
+				bounds = bounds.union(b);
+			}
+		}
+		return bounds;
+	}
+
 	@Override
 	public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod)
 			throws IOException, TileException, InterruptedException {
@@ -157,11 +193,16 @@ public class CustomLocalAqmMapSource implements InitializableMapSource, MapSourc
 					JOptionPane.ERROR_MESSAGE);
 			return;
 		}
+		AqmMap previousMap = this.map;
 		try {
 			this.map = new AqmMap(sourceFile);
 		} catch (IOException e) {
 			throw new MapSourceInitializationException(e);
 		}
+		if (previousMap != null) {
+			// re-initialization: release the mapping of the previously opened file
+			previousMap.close();
+		}
 		this.minZoom = map.minZoom;
 		this.maxZoom = map.maxZoom;
 		this.tileImageType = TileImageType.getTileImageType(map.imgFormat);
@@ -23,6 +23,9 @@ import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import mobac.exceptions.MapSourceInitializationException;
 import mobac.exceptions.TileException;
 import mobac.gui.mapview.PreviewMap;
+import mobac.mapsources.AbstractMultiLayerMapSource;
+import mobac.mapsources.MapSourceTools;
+import mobac.mapsources.TileBoundsMapSource;
 import mobac.mapsources.mapspace.MapSpaceFactory;
 import mobac.program.interfaces.FileBasedMapSource;
 import mobac.program.interfaces.MapSpace;
@@ -39,6 +42,7 @@ import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -49,6 +53,7 @@ import java.io.IOException;
 public class CustomLocalImageFileMapSource
 		implements
 			FileBasedMapSource,
+			TileBoundsMapSource,
 			ReloadableMapSource<CustomLocalImageFileMapSource> {
 
 	private static final Logger log = LoggerFactory.getLogger(CustomLocalImageFileMapSource.class);
@@ -122,6 +127,7 @@ public class CustomLocalImageFileMapSource
 	}
 
 	public void reinitialize() {
+		AbstractMultiLayerMapSource.releaseLayerImages(this);
 		try {
 			if (!imageFile.isFile()) {
 				JOptionPane.showMessageDialog(null,
@@ -163,6 +169,18 @@ public class CustomLocalImageFileMapSource
 		return buf.toByteArray();
 	}
 
+	/**
+	 * @return the tiles intersecting the bounding box of the image
+	 */
+	public Rectangle getTileBounds(int zoom) {
+		int tileSize = mapSpace.getTileSize();
+		int minX = mapSpace.cLonToX(Math.min(boxWest, boxEast), zoom) / tileSize;
+		int maxX = (mapSpace.cLonToX(Math.max(boxWest, boxEast), zoom) - 1) / tileSize;
+		int minY = mapSpace.cLatToY(Math.max(boxNorth, boxSouth), zoom) / tileSize;
+		int maxY = (mapSpace.cLatToY(Math.min(boxNorth, boxSouth), zoom) - 1) / tileSize;
+		return MapSourceTools.createTileBounds(zoom, minX, minY, Math.max(minX, maxX), Math.max(minY, maxY), false);
+	}
+
 	// integer nearest to zero
 	private int absFloor(double value) {
 		return value > 0 ? (int) Math.floor(value) : (int) Math.ceil(value);
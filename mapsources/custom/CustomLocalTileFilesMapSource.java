@@ -22,7 +22,12 @@ import jakarta.xml.bind.annotation.XmlTransient;
 import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import mobac.exceptions.TileException;
 import mobac.gui.mapview.PreviewMap;
+import mobac.mapsources.AbstractMultiLayerMapSource;
+import mobac.mapsources.EncodedTileMapSource;
 import mobac.mapsources.MapSourceTools;
+import mobac.mapsources.TileBoundsMapSource;
+import mobac.mapsources.TileCoverageMapSource;
+import mobac.mapsources.TileKeyMap;
 import mobac.mapsources.mapspace.MapSpaceFactory;
 import mobac.program.interfaces.FileBasedMapSource;
 import mobac.program.interfaces.MapSpace;
@@ -31,32 +36,75 @@ import mobac.program.jaxb.ColorAdapter;
 import mobac.program.model.MapSourceLoaderInfo;
 import mobac.program.model.TileImageType;
 import mobac.utilities.I18nUtils;
-import mobac.utilities.Utilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @XmlRootElement(name = "localTileFiles")
-public class CustomLocalTileFilesMapSource implements FileBasedMapSource {
+public class CustomLocalTileFilesMapSource
+		implements
+			FileBasedMapSource,
+			TileCoverageMapSource,
+			TileBoundsMapSource,
+			EncodedTileMapSource {
 
 	private static final Logger log = LoggerFactory.getLogger(CustomLocalTileFilesMapSource.class);
 	private final MapSpace mapSpace = MapSpaceFactory.getInstance(256, true);
 	private final AtomicBoolean initialized = new AtomicBoolean(false);
 	private MapSourceLoaderInfo loaderInfo = null;
-	private String fileSyntax = null;
+	/**
+	 * Tile file name part following the tile coordinates, e.g. <code>.png</code>
+	 */
+	private String fileSuffix = null;
+
+	/**
+	 * Path of the tile file relative to {@link #sourceFolder} per thread
+	 */
+	private final ThreadLocal<StringBuilder> fileNameBuilder = ThreadLocal.withInitial(() -> new StringBuilder(32));
+
+	/**
+	 * Sorted numbers of the directories below each zoom level directory (x or y
+	 * coordinates depending on the source type), listed on first access to the
+	 * zoom level. Tile directories created later on are not detected, therefore
+	 * it is only used if {@link #tileFileIndex} is enabled.
+	 */
+	private final ConcurrentHashMap<Integer, int[]> tileDirectories = new ConcurrentHashMap<>();
+
+	/**
+	 * Sorted numbers of the tile files of each tile directory (see
+	 * {@link #tileDirectories}), key is the packed zoom level and directory number.
+	 * Each directory is listed on first access.
+	 */
+	private final ConcurrentHashMap<Long, int[]> tileFiles = new ConcurrentHashMap<>();
+
+	/**
+	 * All tiles of a {@link CustomMapSourceType#QUADKEY} source
+	 */
+	private volatile TileKeyMap quadKeyTiles = null;
+
+	/**
+	 * <code>{minX, minY, maxX, maxY}</code> per zoom level of a
+	 * {@link CustomMapSourceType#QUADKEY} source
+	 */
+	private volatile int[][] quadKeyBounds = null;
 
 	private TileImageType tileImageType = null;
 
@@ -81,6 +129,16 @@ public class CustomLocalTileFilesMapSource implements FileBasedMapSource {
 	@XmlJavaTypeAdapter(ColorAdapter.class)
 	private Color backgroundColor = Color.BLACK;
 
+	/**
+	 * Index the tile directories and the tile files of each tile directory on
+	 * first access instead of probing the file system for every tile. Should be
+	 * disabled if tiles are added to the source folder while the map source is in
+	 * use.
+	 */
+	@XmlElement(defaultValue = "true")
+	@XmlJavaTypeAdapter(value = BooleanAdapter.class, type = boolean.class)
+	private boolean tileFileIndex = true;
+
 	public CustomLocalTileFilesMapSource() {
 		super();
 	}
@@ -93,6 +151,11 @@ public class CustomLocalTileFilesMapSource implements FileBasedMapSource {
 	}
 
 	public void reinitialize() {
+		AbstractMultiLayerMapSource.releaseLayerImages(this);
+		tileDirectories.clear();
+		tileFiles.clear();
+		quadKeyTiles = null;
+		quadKeyBounds = null;
 		try {
 			if (!sourceFolder.isDirectory()) {
 				JOptionPane.showMessageDialog(null,
@@ -147,20 +210,18 @@ public class CustomLocalTileFilesMapSource implements FileBasedMapSource {
 				try {
 					xDir.listFiles(new FilenameFilter() {
 
-						String syntax = "%d/%d/%d";
-
 						public boolean accept(File dir, String name) {
 							String[] parts = name.split("\\.");
 							if (parts.length < 2 || parts.length > 3) {
 								return false;
 							}
-							syntax += "." + parts[1];
+							String suffix = "." + parts[1];
 							if (parts.length == 3) {
-								syntax += "." + parts[2];
+								suffix += "." + parts[2];
 							}
 							tileImageType = TileImageType.getTileImageType(parts[1]);
-							fileSyntax = syntax;
-							log.debug("Detected file syntax: " + fileSyntax + " tileImageType=" + tileImageType);
+							fileSuffix = suffix;
+							log.debug("Detected file suffix: " + fileSuffix + " tileImageType=" + tileImageType);
 							throw new RuntimeException("break");
 						}
 					});
@@ -188,7 +249,7 @@ public class CustomLocalTileFilesMapSource implements FileBasedMapSource {
 		if (fileExt == null) {
 			return; // Error no suitable file found
 		}
-		fileSyntax = "%s." + fileExt;
+		fileSuffix = "." + fileExt;
 
 		tileImageType = TileImageType.getTileImageType(fileExt);
 		p = Pattern.compile("([0123]+)\\.(" + fileExt + ")", Pattern.CASE_INSENSITIVE);
@@ -196,27 +257,191 @@ public class CustomLocalTileFilesMapSource implements FileBasedMapSource {
 		int min = PreviewMap.MAX_ZOOM;
 		int max = 1;
 
+		TileKeyMap tiles = new TileKeyMap(files.length);
+		int[][] bounds = new int[PreviewMap.MAX_ZOOM + 1][];
 		for (String file : files) {
 			Matcher m = p.matcher(file);
 			if (!m.matches()) {
 				continue;
 			}
-			if (fileSyntax == null) {
-				fileSyntax = "%s." + m.group(2);
-			}
 			int z = m.group(1).length();
 			min = Math.min(min, z);
 			max = Math.max(max, z);
+			long key = ZipTileArchiveScan.parseTileKey(file, file.substring(z), CustomMapSourceType.QUADKEY);
+			if (key >= 0) {
+				tiles.put(key, 0);
+				if (z < bounds.length) {
+					int x = TileKeyMap.x(key);
+					int y = TileKeyMap.y(key);
+					int[] b = bounds[z];
+					if (b == null) {
+						bounds[z] = new int[]{x, y, x, y};
+					} else {
+						b[0] = Math.min(b[0], x);
+						b[1] = Math.min(b[1], y);
+						b[2] = Math.max(b[2], x);
+						b[3] = Math.max(b[3], y);
+					}
+				}
+			}
 		}
 		minZoom = min;
 		maxZoom = max;
+		quadKeyTiles = tiles;
+		quadKeyBounds = bounds;
+	}
+
+	/**
+	 * Directory based sources only know the range of the first directory level
+	 * (x or y), the other coordinate is reported unrestricted.
+	 */
+	public Rectangle getTileBounds(int zoom) {
+		if (!initialized.get()) {
+			initialize();
+		}
+		if (fileSuffix == null || zoom < 0 || zoom > PreviewMap.MAX_ZOOM) {
+			return new Rectangle();
+		}
+		if (!tileFileIndex && sourceType != CustomMapSourceType.QUADKEY) {
+			// the tile directories may change
+			return null;
+		}
+		int maxTile = (1 << zoom) - 1;
+		switch (sourceType) {
+			case DIR_ZOOM_X_Y : {
+				int[] numbers = tileDirectories.computeIfAbsent(zoom, this::listTileDirectories);
+				if (numbers.length == 0) {
+					return new Rectangle();
+				}
+				return MapSourceTools.createTileBounds(zoom, numbers[0], 0, numbers[numbers.length - 1], maxTile,
+						false);
+			}
+			case DIR_ZOOM_Y_X : {
+				int[] numbers = tileDirectories.computeIfAbsent(zoom, this::listTileDirectories);
+				if (numbers.length == 0) {
+					return new Rectangle();
+				}
+				return MapSourceTools.createTileBounds(zoom, 0, numbers[0], maxTile, numbers[numbers.length - 1],
+						invertYCoordinate);
+			}
+			case QUADKEY : {
+				int[][] bounds = quadKeyBounds;
+				if (bounds == null) {
+					return null;
+				}
+				int[] b = bounds[zoom];
+				if (b == null) {
+					return new Rectangle();
+				}
+				return MapSourceTools.createTileBounds(zoom, b[0], b[1], b[2], b[3], invertYCoordinate);
+			}
+			default :
+				return null;
+		}
+	}
+
+	public boolean mayContainTile(int zoom, int x, int y) {
+		if (!initialized.get()) {
+			initialize();
+		}
+		if (fileSuffix == null) {
+			return false;
+		}
+		if (invertYCoordinate) {
+			y = ((1 << zoom) - y - 1);
+		}
+		switch (sourceType) {
+			case DIR_ZOOM_X_Y :
+				return containsTileDirectory(zoom, x) && containsTileFile(zoom, x, y);
+			case DIR_ZOOM_Y_X :
+				return containsTileDirectory(zoom, y) && containsTileFile(zoom, y, x);
+			case QUADKEY :
+				TileKeyMap tiles = quadKeyTiles;
+				return tiles == null || zoom > PreviewMap.MAX_ZOOM || tiles.containsKey(TileKeyMap.key(zoom, x, y));
+			default :
+				return true;
+		}
+	}
+
+	private boolean containsTileDirectory(int zoom, int number) {
+		if (!tileFileIndex) {
+			return true;
+		}
+		int[] numbers = tileDirectories.computeIfAbsent(zoom, this::listTileDirectories);
+		return Arrays.binarySearch(numbers, number) >= 0;
+	}
+
+	private boolean containsTileFile(int zoom, int dirNumber, int fileNumber) {
+		if (!tileFileIndex) {
+			return true;
+		}
+		int[] numbers = tileFiles.computeIfAbsent(TileKeyMap.key(zoom, dirNumber, 0),
+				k -> listTileFiles(zoom, dirNumber));
+		return Arrays.binarySearch(numbers, fileNumber) >= 0;
+	}
+
+	/**
+	 * @return the sorted numbers of all tile files with the detected file suffix
+	 *         in the specified tile directory
+	 */
+	private int[] listTileFiles(int zoom, int dirNumber) {
+		String[] names = new File(sourceFolder, zoom + "/" + dirNumber).list();
+		if (names == null) {
+			return new int[0];
+		}
+		String suffix = fileSuffix;
+		int[] numbers = new int[names.length];
+		int count = 0;
+		for (String name : names) {
+			int len = name.length() - suffix.length();
+			if (len <= 0 || len > 9 || !name.endsWith(suffix)) {
+				continue;
+			}
+			int number = 0;
+			int i = 0;
+			for (; i < len; i++) {
+				char c = name.charAt(i);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				number = number * 10 + (c - '0');
+			}
+			if (i == len) {
+				numbers[count++] = number;
+			}
+		}
+		numbers = Arrays.copyOf(numbers, count);
+		Arrays.sort(numbers);
+		if (log.isTraceEnabled()) {
+			log.trace("Indexed {} tile files in {}/{}/{}", count, sourceFolder, zoom, dirNumber);
+		}
+		return numbers;
+	}
+
+	private int[] listTileDirectories(int zoom) {
+		String[] names = new File(sourceFolder, Integer.toString(zoom)).list();
+		if (names == null) {
+			return new int[0];
+		}
+		int[] numbers = new int[names.length];
+		int count = 0;
+		for (String name : names) {
+			// the names are not checked for being directories as this would require
+			// one file system access per name
+			if (name.length() > 0 && name.length() < 10 && name.chars().allMatch(c -> c >= '0' && c <= '9')) {
+				numbers[count++] = Integer.parseInt(name);
+			}
+		}
+		numbers = Arrays.copyOf(numbers, count);
+		Arrays.sort(numbers);
+		return numbers;
 	}
 
 	public byte[] getTileData(int zoom, int x, int y, LoadMethod loadMethod) throws IOException {
 		if (!initialized.get()) {
 			initialize();
 		}
-		if (fileSyntax == null) {
+		if (fileSuffix == null || !mayContainTile(zoom, x, y)) {
 			return null;
 		}
 		if (log.isTraceEnabled()) {
@@ -226,25 +451,30 @@ public class CustomLocalTileFilesMapSource implements FileBasedMapSource {
 		if (invertYCoordinate) {
 			y = ((1 << zoom) - y - 1);
 		}
-		String fileName;
+		StringBuilder sb = fileNameBuilder.get();
+		sb.setLength(0);
 		switch (sourceType) {
 			case DIR_ZOOM_X_Y :
-				fileName = String.format(fileSyntax, zoom, x, y);
+				sb.append(zoom).append('/').append(x).append('/').append(y);
 				break;
 			case DIR_ZOOM_Y_X :
-				fileName = String.format(fileSyntax, zoom, y, x);
+				sb.append(zoom).append('/').append(y).append('/').append(x);
 				break;
 			case QUADKEY :
-				fileName = String.format(fileSyntax, MapSourceTools.encodeQuadTree(zoom, x, y));
+				sb.append(MapSourceTools.encodeQuadTree(zoom, x, y));
 				break;
 			default :
 				throw new RuntimeException("Invalid source type");
 		}
-		File file = new File(sourceFolder, fileName);
+		sb.append(fileSuffix);
+		Path file = sourceFolder.toPath().resolve(sb.toString());
 		try {
-			return Utilities.getFileBytes(file);
-		} catch (FileNotFoundException e) {
-			log.debug("Map tile file not found: \"" + file.getAbsolutePath() + "\"");
+			return Files.readAllBytes(file);
+		} catch (NoSuchFileException e) {
+			// only reached for tiles not covered by the tile file index
+			if (log.isDebugEnabled()) {
+				log.debug("Map tile file not found: \"" + file.toAbsolutePath() + "\"");
+			}
 			return null;
 		}
 	}
@@ -22,9 +22,19 @@ import jakarta.xml.bind.annotation.XmlTransient;
 import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import mobac.exceptions.TileException;
 import mobac.gui.mapview.PreviewMap;
+import mobac.mapsources.AbstractMultiLayerMapSource;
+import mobac.mapsources.EncodedTileMapSource;
+import mobac.mapsources.MapSourceTools;
+import mobac.mapsources.TileBloomFilter;
+import mobac.mapsources.TileBoundsMapSource;
+import mobac.mapsources.TileCoverageMapSource;
+import mobac.mapsources.TileRangeMapSource;
+import mobac.mapsources.TileRangeReadAhead;
+import mobac.mapsources.custom.SQLiteConnectionPool.PooledConnection;
 import mobac.mapsources.mapspace.MapSpaceFactory;
 import mobac.program.interfaces.FileBasedMapSource;
 import mobac.program.interfaces.MapSpace;
+import mobac.program.jaxb.BooleanAdapter;
 import mobac.program.jaxb.ColorAdapter;
 import mobac.program.model.MapSourceLoaderInfo;
 import mobac.program.model.TileImageType;
@@ -37,23 +47,31 @@ import org.slf4j.LoggerFactory;
 import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * MBTiles input http://mbtiles.org/
  */
 @XmlRootElement(name = "localTileSQLite")
-public class CustomLocalTileSQliteMapSource implements FileBasedMapSource {
+public class CustomLocalTileSQliteMapSource
+		implements
+			FileBasedMapSource,
+			TileRangeMapSource,
+			TileCoverageMapSource,
+			TileBoundsMapSource,
+			EncodedTileMapSource {
 
 	private static final Logger log = LoggerFactory.getLogger(CustomLocalTileSQliteMapSource.class);
 	private final MapSpace mapSpace = MapSpaceFactory.getInstance(256, true);
@@ -79,38 +97,105 @@ public class CustomLocalTileSQliteMapSource implements FileBasedMapSource {
 	@XmlJavaTypeAdapter(ColorAdapter.class)
 	private Color backgroundColor = Color.BLACK;
 
+	/**
+	 * Maximum number of read-only database connections used for loading tiles in
+	 * parallel. A value less than 1 uses one connection per available processor.
+	 */
+	@XmlElement(defaultValue = "0")
+	private int connectionPoolSize = 0;
+
+	/**
+	 * SQLite <code>PRAGMA mmap_size</code> in bytes. A value of 0 disables memory
+	 * mapped I/O.
+	 */
+	@XmlElement(defaultValue = "268435456")
+	private long mmapSize = 256L * 1024 * 1024;
+
+	/**
+	 * SQLite <code>PRAGMA cache_size</code> per connection. Negative values are
+	 * interpreted by SQLite as size in KiB, positive values as number of pages.
+	 */
+	@XmlElement(defaultValue = "-16384")
+	private int cacheSize = -16384;
+
+	/**
+	 * SQLite <code>PRAGMA query_only</code>
+	 */
+	@XmlElement(defaultValue = "true")
+	@XmlJavaTypeAdapter(value = BooleanAdapter.class, type = boolean.class)
+	private boolean queryOnly = true;
+
+	/**
+	 * Edge length in tiles of the blocks loaded at once while read ahead is active
+	 * (see {@link #setReadAheadArea(int, int, int, int, int)}).
+	 */
+	@XmlElement(defaultValue = "16")
+	private int readAheadBlockSize = 16;
+
+	/**
+	 * Build a bloom filter of all tiles in the database in background, so that
+	 * requests for missing tiles do not require a database query.
+	 */
+	@XmlElement(defaultValue = "true")
+	@XmlJavaTypeAdapter(value = BooleanAdapter.class, type = boolean.class)
+	private boolean tileBloomFilter = true;
+
 	private String sqlMaxZoomStatement;
 	private String sqlMinZoomStatement;
 	private String sqlTileStatement;
+	private String sqlTileRangeStatement;
 	private String sqlTileImageTypeStatement;
+	private String sqlTileCountStatement;
+	private String sqlTileKeysStatement;
+	private String sqlTileBoundsStatement;
+
+	private volatile TileRangeReadAhead readAhead = null;
+
+	/**
+	 * All tiles of the database, <code>null</code> until the filter has been built
+	 */
+	private volatile TileBloomFilter bloomFilter = null;
 
 	/**
-	 * SQLite connection with database file
+	 * Tile bounds per zoom level, queried on first request
 	 */
-	private Connection conn = null;
+	private final ConcurrentHashMap<Integer, Rectangle> tileBounds = new ConcurrentHashMap<>();
+
+	/**
+	 * Read-only SQLite connections with database file
+	 */
+	private SQLiteConnectionPool connectionPool = null;
 
 	public CustomLocalTileSQliteMapSource() {
 		super();
 	}
 
 	protected void updateZoomLevelInfo() {
-		try (Statement statement = conn.createStatement()) {
-			if (statement.execute(sqlMaxZoomStatement)) {
-				try (ResultSet rs = statement.getResultSet()) {
-					if (rs.next()) {
-						maxZoom = rs.getInt(1);
+		PooledConnection pc = null;
+		try {
+			pc = connectionPool.borrow();
+			try (Statement statement = pc.getConnection().createStatement()) {
+				if (statement.execute(sqlMaxZoomStatement)) {
+					try (ResultSet rs = statement.getResultSet()) {
+						if (rs.next()) {
+							maxZoom = rs.getInt(1);
+						}
 					}
 				}
-			}
-			if (statement.execute(sqlMinZoomStatement)) {
-				try (ResultSet rs = statement.getResultSet()) {
-					if (rs.next()) {
-						minZoom = rs.getInt(1);
+				if (statement.execute(sqlMinZoomStatement)) {
+					try (ResultSet rs = statement.getResultSet()) {
+						if (rs.next()) {
+							minZoom = rs.getInt(1);
+						}
 					}
 				}
 			}
-		} catch (SQLException e) {
+		} catch (SQLException | InterruptedException e) {
 			log.error("", e);
+		} finally {
+			if (pc != null) {
+				connectionPool.release(pc);
+			}
 		}
 	}
 
@@ -122,6 +207,7 @@ public class CustomLocalTileSQliteMapSource implements FileBasedMapSource {
 	}
 
 	public void reinitialize() {
+		AbstractMultiLayerMapSource.releaseLayerImages(this);
 		if (atlasType == null) {
 			JOptionPane.showMessageDialog(null,
 					String.format(I18nUtils.localizedStringForKey("msg_custom_map_invalid_source_file"), name,
@@ -145,10 +231,18 @@ public class CustomLocalTileSQliteMapSource implements FileBasedMapSource {
 			return;
 		}
 		log.debug("Loading SQLite database {}", sourceFile);
+		closeConnection();
 		String url = "jdbc:sqlite:" + this.sourceFile;
+		int poolSize = connectionPoolSize;
+		if (poolSize < 1) {
+			poolSize = Runtime.getRuntime().availableProcessors();
+		}
+		connectionPool = new SQLiteConnectionPool(url, poolSize, getConnectionPragmas());
 		try {
-			conn = DriverManager.getConnection(url);
-		} catch (SQLException e) {
+			// Open the first connection to make sure the database is accessible
+			connectionPool.release(connectionPool.borrow());
+		} catch (SQLException | InterruptedException e) {
+			closeConnection();
 			JOptionPane.showMessageDialog(null,
 					String.format(I18nUtils.localizedStringForKey("msg_custom_map_source_failed_load_sqlitedb"), name,
 							sourceFile, e.getMessage()),
@@ -164,7 +258,13 @@ public class CustomLocalTileSQliteMapSource implements FileBasedMapSource {
 				sqlMaxZoomStatement = "SELECT DISTINCT zoom_level FROM tiles ORDER BY zoom_level DESC LIMIT 1;";
 				sqlMinZoomStatement = "SELECT DISTINCT zoom_level FROM tiles ORDER BY zoom_level ASC LIMIT 1;";
 				sqlTileStatement = "SELECT tile_data from tiles WHERE zoom_level=? AND tile_column=? AND tile_row=?;";
+				sqlTileRangeStatement = "SELECT tile_column, tile_row, tile_data from tiles WHERE zoom_level=? "
+						+ "AND tile_column BETWEEN ? AND ? AND tile_row BETWEEN ? AND ?;";
 				sqlTileImageTypeStatement = "SELECT tile_data from tiles LIMIT 1;";
+				sqlTileCountStatement = "SELECT COUNT(*) FROM tiles;";
+				sqlTileKeysStatement = "SELECT zoom_level, tile_column, tile_row FROM tiles;";
+				sqlTileBoundsStatement = "SELECT MIN(tile_column), MIN(tile_row), MAX(tile_column), MAX(tile_row) "
+						+ "FROM tiles WHERE zoom_level=?;";
 				break;
 			case RMaps :
 			case BigPlanetTracks :
@@ -173,34 +273,171 @@ public class CustomLocalTileSQliteMapSource implements FileBasedMapSource {
 				sqlMaxZoomStatement = "SELECT DISTINCT (17 - z) as zoom FROM tiles ORDER BY zoom DESC LIMIT 1;";
 				sqlMinZoomStatement = "SELECT DISTINCT (17 - z) as zoom FROM tiles ORDER BY zoom ASC LIMIT 1;";
 				sqlTileStatement = "SELECT image from tiles WHERE z=(17 - ?) AND x=? AND y=?;";
+				sqlTileRangeStatement = "SELECT x, y, image from tiles WHERE z=(17 - ?) "
+						+ "AND x BETWEEN ? AND ? AND y BETWEEN ? AND ?;";
 				sqlTileImageTypeStatement = "SELECT image from tiles LIMIT 1;";
+				sqlTileCountStatement = "SELECT COUNT(*) FROM tiles;";
+				sqlTileKeysStatement = "SELECT (17 - z), x, y FROM tiles;";
+				sqlTileBoundsStatement = "SELECT MIN(x), MIN(y), MAX(x), MAX(y) FROM tiles WHERE z=(17 - ?);";
 				break;
 			case NaviComputer :
 				sqlMaxZoomStatement = "SELECT DISTINCT zoom FROM Tiles ORDER BY zoom DESC LIMIT 1;";
 				sqlMinZoomStatement = "SELECT DISTINCT zoom FROM Tiles ORDER BY zoom ASC LIMIT 1;";
 				sqlTileStatement = "SELECT Tile FROM Tiles LEFT JOIN Tilesdata ON Tiles.id=Tilesdata.id WHERE Zoom=? AND X=? AND Y=?;";
+				sqlTileRangeStatement = "SELECT X, Y, Tile FROM Tiles LEFT JOIN Tilesdata ON Tiles.id=Tilesdata.id "
+						+ "WHERE Zoom=? AND X BETWEEN ? AND ? AND Y BETWEEN ? AND ?;";
 				sqlTileImageTypeStatement = "SELECT Tile from Tilesdata LIMIT 1;";
+				sqlTileCountStatement = "SELECT COUNT(*) FROM Tiles;";
+				sqlTileKeysStatement = "SELECT Zoom, X, Y FROM Tiles;";
+				sqlTileBoundsStatement = "SELECT MIN(X), MIN(Y), MAX(X), MAX(Y) FROM Tiles WHERE Zoom=?;";
 				break;
 		}
 		updateZoomLevelInfo();
 		detectTileImageType();
+		if (tileBloomFilter) {
+			final SQLiteConnectionPool pool = connectionPool;
+			Thread t = new Thread(() -> buildBloomFilter(pool), "SQLite tile index " + name);
+			t.setDaemon(true);
+			t.start();
+		}
 		initialized.set(true);
 	}
 
+	/**
+	 * Reads the coordinates of all tiles and publishes the resulting bloom filter
+	 * unless the database has been closed or reopened in the meantime.
+	 */
+	protected void buildBloomFilter(SQLiteConnectionPool pool) {
+		long start = System.currentTimeMillis();
+		boolean invertY = (atlasType == SQLiteAtlasType.MBTiles);
+		PooledConnection pc = null;
+		try {
+			pc = pool.borrow();
+			try (Statement statement = pc.getConnection().createStatement()) {
+				long count = 0;
+				try (ResultSet rs = statement.executeQuery(sqlTileCountStatement)) {
+					if (rs.next()) {
+						count = rs.getLong(1);
+					}
+				}
+				TileBloomFilter filter = new TileBloomFilter(count);
+				try (ResultSet rs = statement.executeQuery(sqlTileKeysStatement)) {
+					while (rs.next()) {
+						int zoom = rs.getInt(1);
+						if (zoom < 0 || zoom > PreviewMap.MAX_ZOOM) {
+							continue;
+						}
+						int y = rs.getInt(3);
+						if (invertY) {
+							y = (1 << zoom) - y - 1;
+						}
+						filter.add(zoom, rs.getInt(2), y);
+					}
+				}
+				if (connectionPool == pool) {
+					bloomFilter = filter;
+				}
+				log.debug("Built tile bloom filter of {} ({} tiles, {} bytes) in {} ms", sourceFile, count,
+						filter.getSize(), System.currentTimeMillis() - start);
+			}
+		} catch (SQLException e) {
+			log.warn("Failed to build tile bloom filter of {}: {}", sourceFile, e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (pc != null) {
+				pool.release(pc);
+			}
+		}
+	}
+
+	public Rectangle getTileBounds(int zoom) {
+		if (!initialized.get()) {
+			initialize();
+		}
+		Rectangle bounds = tileBounds.get(zoom);
+		if (bounds != null) {
+			return bounds;
+		}
+		SQLiteConnectionPool pool = connectionPool;
+		if (pool == null || zoom < 0 || zoom > PreviewMap.MAX_ZOOM) {
+			return null;
+		}
+		PooledConnection pc = null;
+		try {
+			pc = pool.borrow();
+			PreparedStatement statement = pc.prepareStatement(sqlTileBoundsStatement);
+			statement.setInt(1, zoom);
+			try (ResultSet rs = statement.executeQuery()) {
+				if (!rs.next()) {
+					bounds = new Rectangle();
+				} else {
+					int minX = rs.getInt(1);
+					if (rs.wasNull()) {
+						bounds = new Rectangle();
+					} else {
+						bounds = MapSourceTools.createTileBounds(zoom, minX, rs.getInt(2), rs.getInt(3), rs.getInt(4),
+								atlasType == SQLiteAtlasType.MBTiles);
+					}
+				}
+			}
+		} catch (SQLException e) {
+			log.error("Failed to query tile bounds z={} of map {}", zoom, name, e);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			if (pc != null) {
+				pool.release(pc);
+			}
+		}
+		if (connectionPool == pool) {
+			tileBounds.put(zoom, bounds);
+		}
+		return bounds;
+	}
+
+	public boolean mayContainTile(int zoom, int x, int y) {
+		TileBloomFilter filter = bloomFilter;
+		if (filter == null || zoom < 0 || zoom > PreviewMap.MAX_ZOOM) {
+			return true;
+		}
+		return filter.mightContain(zoom, x, y);
+	}
+
+	protected List<String> getConnectionPragmas() {
+		List<String> pragmas = new ArrayList<>();
+		pragmas.add("PRAGMA mmap_size=" + Math.max(0, mmapSize));
+		pragmas.add("PRAGMA cache_size=" + cacheSize);
+		if (queryOnly) {
+			pragmas.add("PRAGMA query_only=1");
+		}
+		return pragmas;
+	}
+
 	protected void detectTileImageType() {
 		if (tileImageType != null) {
 			return; // Already specified manually by user
 		}
-		try (Statement statement = conn.createStatement()) {
-			if (statement.execute(sqlTileImageTypeStatement)) {
-				try (ResultSet rs = statement.getResultSet()) {
-					if (rs.next()) {
-						tileImageType = ImageFormatDetector.getImageType(rs.getBytes(1));
+		PooledConnection pc = null;
+		try {
+			pc = connectionPool.borrow();
+			try (Statement statement = pc.getConnection().createStatement()) {
+				if (statement.execute(sqlTileImageTypeStatement)) {
+					try (ResultSet rs = statement.getResultSet()) {
+						if (rs.next()) {
+							tileImageType = ImageFormatDetector.getImageType(rs.getBytes(1));
+						}
 					}
 				}
 			}
-		} catch (SQLException e) {
+		} catch (SQLException | InterruptedException e) {
 			log.error("", e);
+		} finally {
+			if (pc != null) {
+				connectionPool.release(pc);
+			}
 		}
 		if (tileImageType == null) {
 			throw new RuntimeException("Unable to detect image type of " + sourceFile + ".\n"
@@ -209,40 +446,116 @@ public class CustomLocalTileSQliteMapSource implements FileBasedMapSource {
 
 	}
 
-	public byte[] getTileData(int zoom, int x, int y, LoadMethod loadMethod) {
+	public byte[] getTileData(int zoom, int x, int y, LoadMethod loadMethod) throws InterruptedException {
 		if (!initialized.get()) {
 			initialize();
 		}
+		SQLiteConnectionPool pool = connectionPool;
+		if (pool == null || !mayContainTile(zoom, x, y)) {
+			return null;
+		}
+		TileRangeReadAhead ra = readAhead;
+		if (ra != null && ra.covers(zoom, x, y)) {
+			try {
+				return ra.getTileData(x, y);
+			} catch (IOException e) {
+				log.error("Failed to load tile z={} x={} y={} of map {}", zoom, x, y, name, e);
+				return null;
+			}
+		}
 		switch (atlasType) {
 			case MBTiles :
 				y = (1 << zoom) - y - 1;
 				break;
 			default :
 		}
-		try (PreparedStatement statement = conn.prepareStatement(sqlTileStatement)) {
+		PooledConnection pc = null;
+		try {
+			pc = pool.borrow();
+			PreparedStatement statement = pc.prepareStatement(sqlTileStatement);
 			statement.setInt(1, zoom);
 			statement.setInt(2, x);
 			statement.setInt(3, y);
 			if (log.isTraceEnabled()) {
 				log.trace("Loading tile z={} x={} y={}", zoom, x, y);
 			}
-			if (statement.execute()) {
-				try (ResultSet rs = statement.getResultSet()) {
-					if (!rs.next()) {
-						if (log.isDebugEnabled()) {
-							log.debug("Tile in database not found: z={} x={} y={}", zoom, x, y);
-						}
-						return null;
+			try (ResultSet rs = statement.executeQuery()) {
+				if (!rs.next()) {
+					if (log.isDebugEnabled()) {
+						log.debug("Tile in database not found: z={} x={} y={}", zoom, x, y);
 					}
-					return rs.getBytes(1);
+					return null;
 				}
+				return rs.getBytes(1);
 			}
+		} catch (InterruptedException e) {
+			throw e;
 		} catch (Exception e) {
 			log.error("Failed to load tile z={} x={} y={} of map {}", zoom, x, y, name, e);
+		} finally {
+			if (pc != null) {
+				pool.release(pc);
+			}
 		}
 		return null;
 	}
 
+	public void getTileDataRange(int zoom, int minX, int minY, int maxX, int maxY, TileRangeConsumer consumer)
+			throws IOException, InterruptedException {
+		if (!initialized.get()) {
+			initialize();
+		}
+		SQLiteConnectionPool pool = connectionPool;
+		if (pool == null) {
+			return;
+		}
+		boolean invertY = (atlasType == SQLiteAtlasType.MBTiles);
+		int maxRow = (1 << zoom) - 1;
+		PooledConnection pc = null;
+		try {
+			pc = pool.borrow();
+			PreparedStatement statement = pc.prepareStatement(sqlTileRangeStatement);
+			statement.setInt(1, zoom);
+			statement.setInt(2, minX);
+			statement.setInt(3, maxX);
+			if (invertY) {
+				statement.setInt(4, maxRow - maxY);
+				statement.setInt(5, maxRow - minY);
+			} else {
+				statement.setInt(4, minY);
+				statement.setInt(5, maxY);
+			}
+			if (log.isTraceEnabled()) {
+				log.trace("Loading tile range z={} x={}-{} y={}-{}", zoom, minX, maxX, minY, maxY);
+			}
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					int x = rs.getInt(1);
+					int y = rs.getInt(2);
+					if (invertY) {
+						y = maxRow - y;
+					}
+					consumer.tileLoaded(x, y, rs.getBytes(3));
+				}
+			}
+		} catch (SQLException e) {
+			throw new IOException(String.format("Failed to load tile range z=%d x=%d-%d y=%d-%d of map %s", zoom,
+					minX, maxX, minY, maxY, name), e);
+		} finally {
+			if (pc != null) {
+				pool.release(pc);
+			}
+		}
+	}
+
+	public void setReadAheadArea(int zoom, int minX, int minY, int maxX, int maxY) {
+		readAhead = new TileRangeReadAhead(this, zoom, minX, minY, maxX, maxY, readAheadBlockSize);
+	}
+
+	public void clearReadAheadArea() {
+		readAhead = null;
+	}
+
 	public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod)
 			throws IOException, TileException, InterruptedException {
 		byte[] data = getTileData(zoom, x, y, loadMethod);
@@ -291,13 +604,13 @@ public class CustomLocalTileSQliteMapSource implements FileBasedMapSource {
 	}
 
 	protected void closeConnection() {
-		try {
-			if (conn != null) {
-				conn.close();
-			}
-		} catch (SQLException e) {
+		readAhead = null;
+		bloomFilter = null;
+		tileBounds.clear();
+		if (connectionPool != null) {
+			connectionPool.close();
 		}
-		conn = null;
+		connectionPool = null;
 	}
 
 	private enum SQLiteAtlasType {
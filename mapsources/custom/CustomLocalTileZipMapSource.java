@@ -22,7 +22,12 @@ import jakarta.xml.bind.annotation.XmlTransient;
 import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import mobac.exceptions.TileException;
 import mobac.gui.mapview.PreviewMap;
+import mobac.mapsources.AbstractMultiLayerMapSource;
+import mobac.mapsources.EncodedTileMapSource;
 import mobac.mapsources.MapSourceTools;
+import mobac.mapsources.TileBoundsMapSource;
+import mobac.mapsources.TileCoverageMapSource;
+import mobac.mapsources.TileKeyMap;
 import mobac.mapsources.mapspace.MapSpaceFactory;
 import mobac.program.interfaces.FileBasedMapSource;
 import mobac.program.interfaces.MapSpace;
@@ -38,28 +43,49 @@ import org.slf4j.LoggerFactory;
 import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 @XmlRootElement(name = "localTileZip")
-public class CustomLocalTileZipMapSource implements FileBasedMapSource {
+public class CustomLocalTileZipMapSource
+		implements
+			FileBasedMapSource,
+			TileCoverageMapSource,
+			TileBoundsMapSource,
+			EncodedTileMapSource {
 
 	private static final Logger log = LoggerFactory.getLogger(CustomLocalTileZipMapSource.class);
 	private final MapSpace mapSpace = MapSpaceFactory.getInstance(256, true);
 	private final AtomicBoolean initialized = new AtomicBoolean(false);
-	private final LinkedList<ZipFile> zips = new LinkedList<>();
+	private final List<ZipFile> zips = new ArrayList<>();
 	private MapSourceLoaderInfo loaderInfo = null;
-	private String fileSyntax = null;
+	/**
+	 * Tile file name part following the tile coordinates, e.g. <code>.png</code>
+	 */
+	private String fileSuffix = null;
+	/**
+	 * Maps the coordinates of all tiles to the number of the zip file containing
+	 * the tile (index in {@link #zips})
+	 */
+	private TileKeyMap tileIndex = null;
+	/**
+	 * <code>{minX, minY, maxX, maxY}</code> of the tiles in {@link #tileIndex} per
+	 * zoom level, <code>null</code> for zoom levels without tiles
+	 */
+	private int[][] tileBounds = null;
 	private TileImageType tileImageType = null;
 	@XmlElement(nillable = false, defaultValue = "CustomLocal")
 	private String name = "Custom";
@@ -112,6 +138,7 @@ public class CustomLocalTileZipMapSource implements FileBasedMapSource {
 	}
 
 	public void reinitialize() {
+		AbstractMultiLayerMapSource.releaseLayerImages(this);
 		try {
 			openZipFile();
 			if (zips.size() == 0) {
@@ -120,10 +147,8 @@ public class CustomLocalTileZipMapSource implements FileBasedMapSource {
 			switch (sourceType) {
 				case DIR_ZOOM_X_Y :
 				case DIR_ZOOM_Y_X :
-					initializeDirType();
-					break;
 				case QUADKEY :
-					initializeQuadKeyType();
+					scanZipFiles();
 					break;
 				default :
 					throw new RuntimeException("Invalid source type");
@@ -133,103 +158,115 @@ public class CustomLocalTileZipMapSource implements FileBasedMapSource {
 		}
 	}
 
-	public synchronized void initializeDirType() {
-		int min = PreviewMap.MAX_ZOOM;
-		int max = PreviewMap.MIN_ZOOM;
-		for (ZipFile zip : zips) {
-			for (int z = PreviewMap.MAX_ZOOM; z > PreviewMap.MIN_ZOOM; z--) {
-				ZipEntry entry = zip.getEntry(z + "/");
-				if (entry != null) {
-					max = Math.max(max, z);
-					break;
-				}
+	/**
+	 * Scans all zip files in parallel (one pass over the entry names per zip file)
+	 * or loads the scan results from their sidecar index files. The results are
+	 * merged into the zoom range, tile format, per-zoom tile bounds and
+	 * {@link #tileIndex}. The tile file suffix of the first zip file containing
+	 * tiles is used, zip files with a different suffix are ignored.
+	 */
+	protected synchronized void scanZipFiles() {
+		long start = System.currentTimeMillis();
+		List<ZipTileArchiveScan> scans = new ArrayList<>(zips.size());
+		int threads = Math.min(zips.size(), Runtime.getRuntime().availableProcessors());
+		if (threads <= 1) {
+			for (ZipFile zip : zips) {
+				scans.add(ZipTileArchiveScan.loadOrScan(new File(zip.getName()), zip, sourceType));
 			}
-			for (int z = PreviewMap.MIN_ZOOM; z < PreviewMap.MAX_ZOOM; z++) {
-				ZipEntry entry = zip.getEntry(z + "/");
-				if (entry != null) {
-					min = Math.min(min, z);
-					break;
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "Zip tile scan " + name);
+				t.setDaemon(true);
+				return t;
+			});
+			try {
+				List<Future<ZipTileArchiveScan>> futures = new ArrayList<>(zips.size());
+				for (ZipFile zip : zips) {
+					futures.add(executor
+							.submit(() -> ZipTileArchiveScan.loadOrScan(new File(zip.getName()), zip, sourceType)));
 				}
+				for (Future<ZipTileArchiveScan> future : futures) {
+					scans.add(future.get());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.error("Scanning zip files of map source \"" + name + "\" interrupted");
+				return;
+			} catch (ExecutionException e) {
+				log.error("Failed to scan zip files of map source \"" + name + "\"", e.getCause());
+				return;
+			} finally {
+				executor.shutdownNow();
 			}
 		}
-		minZoom = min;
-		maxZoom = max;
 
-		Enumeration<? extends ZipEntry> entries = zips.get(0).entries();
-		String syntax = "%d/%d/%d";
-		while (entries.hasMoreElements()) {
-			ZipEntry entry = entries.nextElement();
-			if (entry.isDirectory()) {
-				continue;
-			}
-			String name = entry.getName();
-			int i = name.lastIndexOf("/");
-			name = name.substring(i + 1);
-
-			String[] parts = name.split("\\.");
-			if (parts.length < 2 || parts.length > 3) {
-				break;
+		int tileCount = 0;
+		for (ZipTileArchiveScan scan : scans) {
+			if (fileSuffix == null) {
+				fileSuffix = scan.getFileSuffix();
 			}
-			syntax += "." + parts[1];
-			tileImageType = TileImageType.getTileImageType(parts[1]);
-			if (parts.length == 3) {
-				syntax += "." + parts[2];
-			}
-			fileSyntax = syntax;
-			log.debug("Detected file syntax: " + fileSyntax + " tileImageType=" + tileImageType);
-			break;
+			tileCount += scan.getTileCount();
 		}
-	}
-
-	public synchronized void initializeQuadKeyType() {
-		Pattern p = Pattern.compile("([0123]+)\\.(png|gif|jpg)", Pattern.CASE_INSENSITIVE);
-		Enumeration<? extends ZipEntry> entries = zips.get(0).entries();
-		String fileExt = null;
-		while (entries.hasMoreElements()) {
-			ZipEntry entry = entries.nextElement();
-			Matcher m = p.matcher(entry.getName());
-			if (!m.matches()) {
-				continue;
-			}
-			fileExt = m.group(2);
-			break;
+		if (fileSuffix == null) {
+			log.error("No tile files found in zip files of map source \"" + name + "\"");
+			return;
 		}
-		if (fileExt == null) {
-			return; // Error no suitable file found
+		String ext = fileSuffix.substring(1);
+		int dot = ext.indexOf('.');
+		if (dot >= 0) {
+			ext = ext.substring(0, dot);
 		}
-		fileSyntax = "%s." + fileExt;
-
-		tileImageType = TileImageType.getTileImageType(fileExt);
-		p = Pattern.compile("([0123]+)\\.(" + fileExt + ")", Pattern.CASE_INSENSITIVE);
+		tileImageType = TileImageType.getTileImageType(ext);
 
-		int min = PreviewMap.MAX_ZOOM;
-		int max = 1;
-
-		for (ZipFile zipFile : zips) {
-			entries = zipFile.entries();
-			while (entries.hasMoreElements()) {
-				ZipEntry entry = entries.nextElement();
-				Matcher m = p.matcher(entry.getName());
-				if (!m.matches()) {
+		int min = Integer.MAX_VALUE;
+		int max = -1;
+		int[][] bounds = new int[PreviewMap.MAX_ZOOM + 1][];
+		TileKeyMap index = new TileKeyMap(tileCount);
+		for (int zipNum = 0; zipNum < scans.size(); zipNum++) {
+			ZipTileArchiveScan scan = scans.get(zipNum);
+			if (scan.getTileCount() == 0) {
+				continue;
+			}
+			if (!fileSuffix.equals(scan.getFileSuffix())) {
+				log.warn("Ignoring zip file {}: tile file suffix {} differs from {}", zips.get(zipNum).getName(),
+						scan.getFileSuffix(), fileSuffix);
+				continue;
+			}
+			for (long key : scan.getTileKeys()) {
+				index.putIfAbsent(key, zipNum);
+			}
+			min = Math.min(min, scan.getMinZoom());
+			max = Math.max(max, scan.getMaxZoom());
+			for (int z = 0; z < bounds.length; z++) {
+				int[] b = scan.getZoomBounds(z);
+				if (b == null) {
 					continue;
 				}
-				if (fileSyntax == null) {
-					fileSyntax = "%s." + m.group(2);
+				if (bounds[z] == null) {
+					bounds[z] = b.clone();
+				} else {
+					bounds[z][0] = Math.min(bounds[z][0], b[0]);
+					bounds[z][1] = Math.min(bounds[z][1], b[1]);
+					bounds[z][2] = Math.max(bounds[z][2], b[2]);
+					bounds[z][3] = Math.max(bounds[z][3], b[3]);
 				}
-				int z = m.group(1).length();
-				min = Math.min(min, z);
-				max = Math.max(max, z);
 			}
 		}
-		minZoom = min;
-		maxZoom = max;
+		if (max >= 0) {
+			minZoom = Math.max(min, PreviewMap.MIN_ZOOM);
+			maxZoom = Math.min(max, PreviewMap.MAX_ZOOM);
+		}
+		tileBounds = bounds;
+		tileIndex = index;
+		log.debug("Indexed {} tiles of {} zip files in {} ms: zoom={}-{} suffix={} tileImageType={}", index.size(),
+				zips.size(), System.currentTimeMillis() - start, minZoom, maxZoom, fileSuffix, tileImageType);
 	}
 
 	public byte[] getTileData(int zoom, int x, int y, LoadMethod loadMethod) throws IOException {
 		if (!initialized.get()) {
 			initialize();
 		}
-		if (fileSyntax == null) {
+		if (tileIndex == null) {
 			return null;
 		}
 		if (log.isTraceEnabled()) {
@@ -239,31 +276,81 @@ public class CustomLocalTileZipMapSource implements FileBasedMapSource {
 		if (invertYCoordinate) {
 			y = ((1 << zoom) - y - 1);
 		}
-		ZipEntry entry = null;
-		String fileName;
+		long zipNum = getZipNumber(zoom, x, y);
+		if (zipNum < 0) {
+			if (log.isDebugEnabled()) {
+				log.debug("Map tile file not found in zip files: z={} x={} y={}", zoom, x, y);
+			}
+			return null;
+		}
+		ZipFile zip = zips.get((int) zipNum);
+		String fileName = getFileName(zoom, x, y);
+		ZipEntry entry = zip.getEntry(fileName);
+		if (entry == null) {
+			log.error("Indexed map tile file not found in zip file {}: {}", zip.getName(), fileName);
+			return null;
+		}
+		try (InputStream in = zip.getInputStream(entry)) {
+			return Utilities.getInputBytes(in);
+		}
+	}
+
+	public boolean mayContainTile(int zoom, int x, int y) {
+		if (!initialized.get()) {
+			initialize();
+		}
+		if (tileIndex == null) {
+			return false;
+		}
+		if (invertYCoordinate) {
+			y = ((1 << zoom) - y - 1);
+		}
+		return getZipNumber(zoom, x, y) >= 0;
+	}
+
+	public Rectangle getTileBounds(int zoom) {
+		if (!initialized.get()) {
+			initialize();
+		}
+		if (tileIndex == null) {
+			return new Rectangle();
+		}
+		int[] b = (zoom >= 0 && zoom < tileBounds.length) ? tileBounds[zoom] : null;
+		if (b == null) {
+			return new Rectangle();
+		}
+		return MapSourceTools.createTileBounds(zoom, b[0], b[1], b[2], b[3], invertYCoordinate);
+	}
+
+	/**
+	 * @return number of the zip file containing the tile or -1 if the tile does
+	 *         not exist - the y coordinate is expected to be already inverted if
+	 *         configured
+	 */
+	private long getZipNumber(int zoom, int x, int y) {
+		int[] bounds = (zoom >= 0 && zoom < tileBounds.length) ? tileBounds[zoom] : null;
+		if (bounds != null && x >= bounds[0] && y >= bounds[1] && x <= bounds[2] && y <= bounds[3]) {
+			return tileIndex.get(TileKeyMap.key(zoom, x, y), -1);
+		}
+		return -1;
+	}
+
+	private String getFileName(int zoom, int x, int y) {
+		StringBuilder sb = new StringBuilder(32);
 		switch (sourceType) {
 			case DIR_ZOOM_X_Y :
-				fileName = String.format(fileSyntax, zoom, x, y);
+				sb.append(zoom).append('/').append(x).append('/').append(y);
 				break;
 			case DIR_ZOOM_Y_X :
-				fileName = String.format(fileSyntax, zoom, y, x);
+				sb.append(zoom).append('/').append(y).append('/').append(x);
 				break;
 			case QUADKEY :
-				fileName = String.format(fileSyntax, MapSourceTools.encodeQuadTree(zoom, x, y));
+				sb.append(MapSourceTools.encodeQuadTree(zoom, x, y));
 				break;
 			default :
 				throw new RuntimeException("Invalid source type");
 		}
-		for (ZipFile zip : zips) {
-			entry = zip.getEntry(fileName);
-			if (entry != null) {
-				try (InputStream in = zip.getInputStream(entry)) {
-					return Utilities.getInputBytes(in);
-				}
-			}
-		}
-		log.debug("Map tile file not found in zip files: " + fileName);
-		return null;
+		return sb.append(fileSuffix).toString();
 	}
 
 	public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod)
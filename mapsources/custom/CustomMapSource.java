@@ -26,6 +26,7 @@ import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import mobac.exceptions.MapSourceInitializationException;
 import mobac.exceptions.UnrecoverableDownloadException;
 import mobac.mapsources.AbstractHttpMapSourceBase;
+import mobac.mapsources.EncodedTileMapSource;
 import mobac.mapsources.MapSourceTools;
 import mobac.mapsources.mapspace.MercatorPower2MapSpace;
 import mobac.program.download.MobacSSLHelper;
@@ -48,7 +49,6 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -56,7 +56,10 @@ import java.util.Set;
  * Custom tile store provider, configurable via settings.xml.
  */
 @XmlRootElement
-public class CustomMapSource extends AbstractHttpMapSourceBase implements ReloadableMapSource<CustomMapSource> {
+public class CustomMapSource extends AbstractHttpMapSourceBase
+		implements
+			ReloadableMapSource<CustomMapSource>,
+			EncodedTileMapSource {
 
 	/**
 	 * List of trusted public key (hex encoded lowercase SHA-256 hash of the encoded
@@ -86,6 +89,19 @@ public class CustomMapSource extends AbstractHttpMapSourceBase implements Reload
 	@XmlElement(required = false, defaultValue = "false")
 	@XmlJavaTypeAdapter(value = BooleanAdapter.class, type = boolean.class)
 	private boolean ignoreErrors = false;
+	/**
+	 * Download the tiles via the shared HTTP/2 capable client, see
+	 * {@link mobac.mapsources.HttpClientTileConnection}. Not possible in
+	 * combination with trusted public keys.
+	 */
+	@XmlElement(required = false, defaultValue = "false")
+	@XmlJavaTypeAdapter(value = BooleanAdapter.class, type = boolean.class)
+	private boolean httpClient = false;
+	/**
+	 * Maximum number of tile requests per second, 0 for unlimited
+	 */
+	@XmlElement(required = false, defaultValue = "0")
+	private double maxRequestsPerSecond = 0;
 	@XmlElement(required = false, defaultValue = "")
 	@XmlList
 	private String[] serverParts = null;
@@ -119,6 +135,8 @@ public class CustomMapSource extends AbstractHttpMapSourceBase implements Reload
 		invertYCoordinate = reloadedMapSource.invertYCoordinate;
 		backgroundColor = reloadedMapSource.backgroundColor;
 		ignoreErrors = reloadedMapSource.ignoreErrors;
+		httpClient = reloadedMapSource.httpClient;
+		maxRequestsPerSecond = reloadedMapSource.maxRequestsPerSecond;
 		serverParts = reloadedMapSource.serverParts;
 		loaderInfo = reloadedMapSource.loaderInfo;
 		afterUnmarshal(null, null);
@@ -159,7 +177,17 @@ public class CustomMapSource extends AbstractHttpMapSourceBase implements Reload
 		if (url == null) {
 			return null;
 		}
-		return (HttpURLConnection) new URL(url).openConnection();
+		return openTileConnection(url);
+	}
+
+	@Override
+	protected boolean useHttpClient() {
+		return httpClient || super.useHttpClient();
+	}
+
+	@Override
+	protected double getMaxRequestsPerSecond() {
+		return (maxRequestsPerSecond > 0) ? maxRequestsPerSecond : super.getMaxRequestsPerSecond();
 	}
 
 	public String getTileUrl(int zoom, int tilex, int tiley) {
@@ -186,6 +214,7 @@ public class CustomMapSource extends AbstractHttpMapSourceBase implements Reload
 			}
 			return data;
 		}
+		beginTileRequest();
 		try {
 			if (invertYCoordinate) {
 				y = ((1 << zoom) - y - 1);
@@ -198,6 +227,8 @@ public class CustomMapSource extends AbstractHttpMapSourceBase implements Reload
 				return null;
 			}
 			throw e;
+		} finally {
+			endTileRequest();
 		}
 	}
 
@@ -226,6 +257,12 @@ public class CustomMapSource extends AbstractHttpMapSourceBase implements Reload
 
 	}
 
+	@Override
+	public boolean isTileImageDecodedData() {
+		// missing tiles are replaced by a tile filled with the background color
+		return !ignoreErrors;
+	}
+
 	@Override
 	public String toString() {
 		return name;
@@ -75,6 +75,7 @@ public class CustomMultiLayerMapSource extends AbstractMultiLayerMapSource
 		if (!name.equals(reloadedMapSource.getName())) {
 			throw new MapSourceInitializationException("The map name has changed");
 		}
+		releaseLayerImages();
 		this.layers = reloadedMapSource.layers;
 		this.layersAlpha = reloadedMapSource.layersAlpha;
 		this.backgroundColor = reloadedMapSource.backgroundColor;
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources.custom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Bounded pool of read-only SQLite connections. Every connection caches the
+ * prepared statements created on it, therefore the SQL of a tile query is only
+ * parsed once per connection instead of once per tile.
+ * <p>
+ * Connections are opened lazily up to the configured pool size. A thread that
+ * requests a connection while all connections are in use blocks until another
+ * thread releases one or the pool is closed.
+ */
+public class SQLiteConnectionPool {
+
+	private static final Logger log = LoggerFactory.getLogger(SQLiteConnectionPool.class);
+
+	/**
+	 * SQLite open flag <code>SQLITE_OPEN_READONLY</code>
+	 */
+	private static final String OPEN_MODE_READONLY = "1";
+
+	/**
+	 * Maximum time a waiting thread sleeps before it checks the pool state again
+	 */
+	private static final long WAIT_INTERVAL = 1000;
+
+	private final String url;
+	private final int maxSize;
+	private final List<String> pragmas;
+	private final ArrayDeque<PooledConnection> idleConnections;
+	private final List<PooledConnection> connections;
+	private boolean closed = false;
+
+	/**
+	 * @param url
+	 *            JDBC url of the SQLite database
+	 * @param maxSize
+	 *            maximum number of connections opened at the same time
+	 * @param pragmas
+	 *            <code>PRAGMA</code> statements executed on every newly opened
+	 *            connection, e.g. <code>PRAGMA mmap_size=268435456</code>
+	 */
+	public SQLiteConnectionPool(String url, int maxSize, List<String> pragmas) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Invalid connection pool size: " + maxSize);
+		}
+		this.url = url;
+		this.maxSize = maxSize;
+		this.pragmas = new ArrayList<>(pragmas);
+		this.idleConnections = new ArrayDeque<>(maxSize);
+		this.connections = new ArrayList<>(maxSize);
+	}
+
+	/**
+	 * Retrieves an idle connection or opens a new one if the pool has not yet
+	 * reached its maximum size. Every connection retrieved by this method has to be
+	 * handed back via {@link #release(PooledConnection)}.
+	 *
+	 * @throws SQLException
+	 *             if the pool is closed, also while waiting for a connection
+	 */
+	public synchronized PooledConnection borrow() throws SQLException, InterruptedException {
+		while (true) {
+			if (closed) {
+				throw new SQLException("Connection pool of " + url + " has been closed");
+			}
+			PooledConnection connection = idleConnections.poll();
+			if (connection != null) {
+				return connection;
+			}
+			if (connections.size() < maxSize) {
+				connection = openConnection();
+				connections.add(connection);
+				return connection;
+			}
+			wait(WAIT_INTERVAL);
+		}
+	}
+
+	public synchronized void release(PooledConnection connection) {
+		if (closed) {
+			connection.close();
+			return;
+		}
+		idleConnections.offer(connection);
+		notify();
+	}
+
+	/**
+	 * Closes all connections of this pool. Connections that are currently borrowed
+	 * are closed as well, therefore this method should only be called if no tiles
+	 * are loaded anymore. Threads waiting for a connection fail with an
+	 * {@link SQLException}.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (PooledConnection connection : connections) {
+			connection.close();
+		}
+		connections.clear();
+		idleConnections.clear();
+		notifyAll();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	private PooledConnection openConnection() throws SQLException {
+		log.debug("Opening read-only SQLite connection #{} to {}", connections.size() + 1, url);
+		Properties properties = new Properties();
+		properties.setProperty("open_mode", OPEN_MODE_READONLY);
+		Connection conn = DriverManager.getConnection(url, properties);
+		try (Statement statement = conn.createStatement()) {
+			for (String pragma : pragmas) {
+				statement.execute(pragma);
+			}
+		} catch (SQLException e) {
+			conn.close();
+			throw e;
+		}
+		return new PooledConnection(conn);
+	}
+
+	/**
+	 * A single connection of the pool together with the prepared statements
+	 * created on it. Instances are only used by one thread at a time.
+	 */
+	public static class PooledConnection {
+
+		private final Connection conn;
+		private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+		private PooledConnection(Connection conn) {
+			this.conn = conn;
+		}
+
+		public Connection getConnection() {
+			return conn;
+		}
+
+		/**
+		 * @return the cached prepared statement for the given SQL. The statement must
+		 *         not be closed by the caller.
+		 */
+		public PreparedStatement prepareStatement(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = conn.prepareStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
+
+		private void close() {
+			for (PreparedStatement statement : statements.values()) {
+				try {
+					statement.close();
+				} catch (SQLException e) {
+				}
+			}
+			statements.clear();
+			try {
+				conn.close();
+			} catch (SQLException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,403 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources.custom;
+
+import mobac.mapsources.TileKeyMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Result of scanning all entry names of one tile zip archive: the tile file
+ * suffix (e.g. <code>.png</code>), the packed keys of all tiles (see
+ * {@link TileKeyMap#key(int, int, int)}), the zoom range and the tile bounds
+ * of each zoom level.
+ * <p>
+ * The result can be stored in a sidecar file next to the archive (see
+ * {@link #getCacheFile(File)}). The sidecar file is only used as long as size
+ * and modification time of the archive are unchanged.
+ */
+public class ZipTileArchiveScan {
+
+	private static final Logger log = LoggerFactory.getLogger(ZipTileArchiveScan.class);
+
+	private static final int CACHE_MAGIC = 0x4D5A4931; // "MZI1"
+	private static final String CACHE_FILE_SUFFIX = ".mobac-index";
+	private static final int MAX_ZOOM = 29;
+
+	private final String fileSuffix;
+	private final long[] tileKeys;
+	private final int[][] zoomBounds = new int[MAX_ZOOM + 1][];
+	private int minZoom = -1;
+	private int maxZoom = -1;
+
+	private ZipTileArchiveScan(String fileSuffix, long[] tileKeys) {
+		this.fileSuffix = fileSuffix;
+		this.tileKeys = tileKeys;
+		for (long key : tileKeys) {
+			int z = TileKeyMap.zoom(key);
+			int x = TileKeyMap.x(key);
+			int y = TileKeyMap.y(key);
+			int[] b = zoomBounds[z];
+			if (b == null) {
+				zoomBounds[z] = new int[]{x, y, x, y};
+			} else {
+				b[0] = Math.min(b[0], x);
+				b[1] = Math.min(b[1], y);
+				b[2] = Math.max(b[2], x);
+				b[3] = Math.max(b[3], y);
+			}
+			minZoom = (minZoom < 0) ? z : Math.min(minZoom, z);
+			maxZoom = Math.max(maxZoom, z);
+		}
+	}
+
+	/**
+	 * Loads the scan result from the sidecar file of <code>archiveFile</code> or
+	 * scans all entries of <code>zip</code> if there is no valid sidecar file. A
+	 * newly created scan result is written to the sidecar file if possible.
+	 */
+	public static ZipTileArchiveScan loadOrScan(File archiveFile, ZipFile zip, CustomMapSourceType sourceType) {
+		File cacheFile = getCacheFile(archiveFile);
+		if (cacheFile.isFile()) {
+			try {
+				ZipTileArchiveScan scan = loadCache(cacheFile, archiveFile, zip.size(), sourceType);
+				if (scan != null) {
+					log.debug("Loaded tile index of {} from {}", archiveFile, cacheFile);
+					return scan;
+				}
+			} catch (IOException | RuntimeException e) {
+				// a damaged index file is treated like a missing one
+				log.warn("Failed to read tile index file {}: {}", cacheFile, e.toString());
+			}
+		}
+		long start = System.currentTimeMillis();
+		ZipTileArchiveScan scan = scan(zip, sourceType);
+		log.debug("Scanned {} tiles of {} in {} ms", scan.tileKeys.length, archiveFile,
+				System.currentTimeMillis() - start);
+		try {
+			scan.saveCache(cacheFile, archiveFile, sourceType);
+		} catch (IOException e) {
+			log.debug("Unable to write tile index file {}: {}", cacheFile, e.getMessage());
+			cacheFile.delete();
+		}
+		return scan;
+	}
+
+	public static File getCacheFile(File archiveFile) {
+		return new File(archiveFile.getParentFile(), archiveFile.getName() + CACHE_FILE_SUFFIX);
+	}
+
+	/**
+	 * Reads all entry names of the zip file in one pass. The first tile file found
+	 * determines the file suffix, tile files with a different suffix are ignored.
+	 */
+	public static ZipTileArchiveScan scan(ZipFile zip, CustomMapSourceType sourceType) {
+		String suffix = null;
+		long[] keys = new long[Math.max(16, zip.size())];
+		int count = 0;
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			if (entry.isDirectory()) {
+				continue;
+			}
+			String name = entry.getName();
+			if (suffix == null) {
+				suffix = detectFileSuffix(name, sourceType);
+				if (suffix == null) {
+					continue;
+				}
+			}
+			long key = parseTileKey(name, suffix, sourceType);
+			if (key < 0) {
+				continue;
+			}
+			if (count == keys.length) {
+				keys = Arrays.copyOf(keys, count * 2);
+			}
+			keys[count++] = key;
+		}
+		return new ZipTileArchiveScan(suffix, Arrays.copyOf(keys, count));
+	}
+
+	/**
+	 * @return the file suffix (e.g. <code>.png</code> or <code>.png.tile</code>) if
+	 *         <code>name</code> is a tile file name or <code>null</code> otherwise
+	 */
+	private static String detectFileSuffix(String name, CustomMapSourceType sourceType) {
+		if (sourceType == CustomMapSourceType.QUADKEY) {
+			int dot = name.indexOf('.');
+			if (dot < 1) {
+				return null;
+			}
+			String ext = name.substring(dot + 1);
+			if (!ext.equalsIgnoreCase("png") && !ext.equalsIgnoreCase("gif") && !ext.equalsIgnoreCase("jpg")) {
+				return null;
+			}
+			String suffix = name.substring(dot);
+			return (parseTileKey(name, suffix, sourceType) >= 0) ? suffix : null;
+		}
+		int slash = name.lastIndexOf('/');
+		int dot = name.indexOf('.', slash + 1);
+		if (dot < 0) {
+			return null;
+		}
+		String suffix = name.substring(dot);
+		// one or two extensions like the tile file names supported before
+		int dots = 0;
+		for (int i = 0; i < suffix.length(); i++) {
+			if (suffix.charAt(i) == '.') {
+				dots++;
+			}
+		}
+		if (dots > 2 || suffix.length() == 1 || suffix.endsWith(".")) {
+			return null;
+		}
+		return (parseTileKey(name, suffix, sourceType) >= 0) ? suffix : null;
+	}
+
+	/**
+	 * Parses a zip entry name without using regular expressions or creating
+	 * intermediate strings.
+	 *
+	 * @return the packed tile key (see {@link TileKeyMap#key(int, int, int)}) or -1
+	 *         if the name is not a tile file name
+	 */
+	public static long parseTileKey(String name, String suffix, CustomMapSourceType sourceType) {
+		int len = name.length() - suffix.length();
+		if (len <= 0 || !name.endsWith(suffix)) {
+			return -1;
+		}
+		if (sourceType == CustomMapSourceType.QUADKEY) {
+			if (len > MAX_ZOOM) {
+				return -1;
+			}
+			int x = 0;
+			int y = 0;
+			for (int i = 0; i < len; i++) {
+				int digit = name.charAt(i) - '0';
+				if (digit < 0 || digit > 3) {
+					return -1;
+				}
+				x = (x << 1) | (digit & 1);
+				y = (y << 1) | (digit >> 1);
+			}
+			return TileKeyMap.key(len, x, y);
+		}
+		int z = 0;
+		int a = 0;
+		int b = 0;
+		int pos = 0;
+		for (int i = 0; i < 3; i++) {
+			int start = pos;
+			int value = 0;
+			while (pos < len) {
+				char c = name.charAt(pos);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				value = value * 10 + (c - '0');
+				if (value > 0xFFFFFFF) {
+					return -1;
+				}
+				pos++;
+			}
+			if (pos == start) {
+				return -1;
+			}
+			if (i == 0) {
+				z = value;
+			} else if (i == 1) {
+				a = value;
+			} else {
+				b = value;
+			}
+			if (i < 2) {
+				if (pos >= len || name.charAt(pos) != '/') {
+					return -1;
+				}
+				pos++;
+			}
+		}
+		if (pos != len || z > MAX_ZOOM) {
+			return -1;
+		}
+		if (sourceType == CustomMapSourceType.DIR_ZOOM_Y_X) {
+			return TileKeyMap.key(z, b, a);
+		}
+		return TileKeyMap.key(z, a, b);
+	}
+
+	/**
+	 * @param maxCount
+	 *            number of entries of the archive, the index can not contain more
+	 *            tiles
+	 * @return the scan result or <code>null</code> if the index file is outdated
+	 *         or invalid
+	 */
+	private static ZipTileArchiveScan loadCache(File cacheFile, File archiveFile, int maxCount,
+			CustomMapSourceType sourceType) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+			if (in.readInt() != CACHE_MAGIC) {
+				return null;
+			}
+			if (in.readLong() != archiveFile.length() || in.readLong() != archiveFile.lastModified()) {
+				log.debug("Tile index file {} is outdated", cacheFile);
+				return null;
+			}
+			if (!sourceType.name().equals(in.readUTF())) {
+				return null;
+			}
+			String suffix = in.readUTF();
+			if (suffix.isEmpty()) {
+				suffix = null;
+			}
+			int count = in.readInt();
+			if (count < 0 || count > maxCount) {
+				log.debug("Tile index file {} contains an invalid tile count: {}", cacheFile, count);
+				return null;
+			}
+			long[] keys = new long[count];
+			long key = 0;
+			for (int i = 0; i < count; i++) {
+				key += readVarLong(in);
+				if (key < 0 || TileKeyMap.zoom(key) > MAX_ZOOM) {
+					log.debug("Tile index file {} contains an invalid tile key", cacheFile);
+					return null;
+				}
+				keys[i] = key;
+			}
+			return new ZipTileArchiveScan(suffix, keys);
+		}
+	}
+
+	/**
+	 * Writes the sorted tile keys delta encoded as variable length numbers which
+	 * results in approximately two bytes per tile. The index is written to a
+	 * temporary file first which then replaces the index file, therefore a
+	 * concurrent reader never sees an incomplete index file.
+	 */
+	private void saveCache(File cacheFile, File archiveFile, CustomMapSourceType sourceType) throws IOException {
+		long[] sortedKeys = tileKeys.clone();
+		Arrays.sort(sortedKeys);
+		File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+		try {
+			writeCache(tempFile, archiveFile, sourceType, sortedKeys);
+			Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private void writeCache(File file, File archiveFile, CustomMapSourceType sourceType, long[] sortedKeys)
+			throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+			out.writeInt(CACHE_MAGIC);
+			out.writeLong(archiveFile.length());
+			out.writeLong(archiveFile.lastModified());
+			out.writeUTF(sourceType.name());
+			out.writeUTF(fileSuffix != null ? fileSuffix : "");
+			out.writeInt(sortedKeys.length);
+			long last = 0;
+			for (long key : sortedKeys) {
+				writeVarLong(out, key - last);
+				last = key;
+			}
+		}
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			if (shift > 63) {
+				throw new IOException("Invalid variable length number");
+			}
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * @return the tile file suffix or <code>null</code> if the archive does not
+	 *         contain any tile
+	 */
+	public String getFileSuffix() {
+		return fileSuffix;
+	}
+
+	public long[] getTileKeys() {
+		return tileKeys;
+	}
+
+	public int getTileCount() {
+		return tileKeys.length;
+	}
+
+	/**
+	 * @return lowest zoom level or -1 if the archive does not contain any tile
+	 */
+	public int getMinZoom() {
+		return minZoom;
+	}
+
+	/**
+	 * @return highest zoom level or -1 if the archive does not contain any tile
+	 */
+	public int getMaxZoom() {
+		return maxZoom;
+	}
+
+	/**
+	 * @return <code>{minX, minY, maxX, maxY}</code> of all tiles of the specified
+	 *         zoom level or <code>null</code> if there are no tiles on this level
+	 */
+	public int[] getZoomBounds(int zoom) {
+		if (zoom < 0 || zoom > MAX_ZOOM) {
+			return null;
+		}
+		return zoomBounds[zoom];
+	}
+}
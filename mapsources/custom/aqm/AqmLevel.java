@@ -17,15 +17,11 @@
 
 package mobac.mapsources.custom.aqm;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Alpine Quest Map : http://alpinequest.net/ Developer :
  * ph-t@users.sourceforge.net
  */
 public class AqmLevel {
-	public final List<AqmTile> tiles;
 	public final int z; // zoom
 
 	public final int id;
@@ -49,8 +45,6 @@ public class AqmLevel {
 	public final String imgformat;
 
 	AqmLevel(AqmPropertyParser properties) {
-		this.tiles = new ArrayList<>();
-
 		this.id = properties.getIntProperty("id");
 		this.z = id;
 		this.name = properties.getStringProperty("name");
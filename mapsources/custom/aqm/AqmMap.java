@@ -16,33 +16,41 @@
  ******************************************************************************/
 package mobac.mapsources.custom.aqm;
 
+import mobac.mapsources.TileKeyMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class AqmMap {
 	private static final Charset ISO_8859_1 = StandardCharsets.ISO_8859_1;
 	private static final Logger log = LoggerFactory.getLogger(AqmMap.class);
 	private static final String FLAT_PACK_SEPARATOR = "\0";
 	private static final byte FLAT_PACK_BSEPARATOR = FLAT_PACK_SEPARATOR.getBytes()[0];
-	private final File fileAQMmap;
-	private final MetaDataHeader header;
+	private static final int MAX_ZOOM = 29;
+	private final AqmMappedFile mappedFile;
 	private final long headerSize;
 	private final MetaDataHeaderAnalyser headerAnalyser;
 	private final List<AqmLevel> levels = new ArrayList<>();
-	private final Map<String, AqmTile> tilesMap = new HashMap<>();
+	/**
+	 * Header information of the levels indexed by zoom level. A map may contain
+	 * several levels with the same zoom (e.g. multiple regions).
+	 */
+	@SuppressWarnings("unchecked")
+	private final List<MetaDataLevel>[] metaDataLevels = new List[MAX_ZOOM + 1];
+	/**
+	 * Per zoom level: maps the packed tile coordinates to the file offset of the
+	 * tile chunk. Contains the tiles of all levels of that zoom and is loaded on
+	 * first access of the zoom level.
+	 */
+	private final AtomicReferenceArray<TileKeyMap> tileIndexes = new AtomicReferenceArray<>(MAX_ZOOM + 1);
 	// map properties
 	public String id;
 	public String name;
@@ -55,15 +63,14 @@ public class AqmMap {
 	public String imgFormat;
 
 	public AqmMap(File fileAQMmap) throws IOException {
-		this.fileAQMmap = fileAQMmap;
-		this.header = new MetaDataHeader(fileAQMmap);
+		long start = System.currentTimeMillis();
+		this.mappedFile = new AqmMappedFile(fileAQMmap);
+		MetaDataHeader header = new MetaDataHeader(mappedFile);
 		this.headerSize = header.getHeaderSize();
-		this.headerAnalyser = new MetaDataHeaderAnalyser(header.getTokenizedHeader());
+		this.headerAnalyser = new MetaDataHeaderAnalyser(header);
 		buildMap();
-	}
-
-	private static String generateKey(int zoom, int y, int x) {
-		return String.format("%d_%d_%d", zoom, y, x);
+		log.info("Opened AQM map {}: {} levels in {} ms", fileAQMmap, levels.size(),
+				System.currentTimeMillis() - start);
 	}
 
 	private String getFileChunkString(long start) throws IOException {
@@ -71,13 +78,7 @@ public class AqmMap {
 	}
 
 	private byte[] getFileChunk(long start) throws IOException {
-		try (InputStream in = new BufferedInputStream(new FileInputStream(fileAQMmap))) {
-			if (in.skip(start) != start) {
-				throw new IOException("Skipping failed");
-			}
-			int chunkSize = MetaDataHeader.readZeroTerminatedIntegerString(in);
-			return in.readNBytes(chunkSize);
-		}
+		return mappedFile.readChunk(start);
 	}
 
 	private void buildMap() throws IOException {
@@ -101,38 +102,76 @@ public class AqmMap {
 			this.imgFormat = level.imgformat;
 
 			this.levels.add(level);
-			List<MetaDataTile> tileList = l.getTileList();
-			for (MetaDataTile t : tileList) {
-				// tile loaded in memory
-				// byte[] bTile = getFileChunk(headerSize + t.byteIndex);
-				// AqmTile tile = new AqmTile(t.name, bTile, headerSize + t.byteIndex);
-
-				AqmTile tile = new AqmTile(t.name, headerSize + t.byteIndex);
-				level.tiles.add(tile);
-				tilesMap.put(generateKey(level.z, tile.y, tile.x), tile);
+			if (level.z >= 0 && level.z <= MAX_ZOOM) {
+				if (metaDataLevels[level.z] == null) {
+					metaDataLevels[level.z] = new ArrayList<>(1);
+				}
+				metaDataLevels[level.z].add(l);
+			} else {
+				log.warn("Ignoring level with invalid zoom {}", level.z);
 			}
 		}
 	}
 
-	private AqmTile getTile(int zoom, int x, int y) {
-		return tilesMap.get(generateKey(zoom, y, x));
+	/**
+	 * @return the tile index of the specified zoom level or <code>null</code> if
+	 *         the map does not contain this level. The index is loaded from the
+	 *         header on the first call for each zoom level and covers all levels
+	 *         of that zoom. If levels overlap the tile of the last level wins.
+	 */
+	private TileKeyMap getTileIndex(int zoom) throws IOException {
+		if (zoom < 0 || zoom > MAX_ZOOM || metaDataLevels[zoom] == null) {
+			return null;
+		}
+		TileKeyMap index = tileIndexes.get(zoom);
+		if (index != null) {
+			return index;
+		}
+		synchronized (metaDataLevels[zoom]) {
+			index = tileIndexes.get(zoom);
+			if (index != null) {
+				return index;
+			}
+			long start = System.currentTimeMillis();
+			Runtime runtime = Runtime.getRuntime();
+			long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+			List<MetaDataLevel> zoomLevels = metaDataLevels[zoom];
+			int tileCount = 0;
+			for (MetaDataLevel level : zoomLevels) {
+				tileCount += level.getTileCount();
+			}
+			index = new TileKeyMap(tileCount);
+			for (MetaDataLevel level : zoomLevels) {
+				headerAnalyser.readTiles(level, zoom, index, headerSize);
+			}
+			tileIndexes.set(zoom, index);
+			long heapDelta = (runtime.totalMemory() - runtime.freeMemory()) - heapBefore;
+			log.info("Loaded AQM tile index of zoom level {}: {} tiles in {} ms, heap usage changed by {} KiB", zoom,
+					index.size(), System.currentTimeMillis() - start, heapDelta / 1024);
+			return index;
+		}
 	}
 
 	public byte[] getByteTile(int zoom, int x, int y) throws IOException {
-		AqmTile t = getTile(zoom, x, y);
-		if (t == null) {
+		TileKeyMap tileIndex = getTileIndex(zoom);
+		long tileByteIndex = (tileIndex != null) ? tileIndex.get(TileKeyMap.key(zoom, x, y), -1) : -1;
+		if (tileByteIndex < 0) {
 			log.debug("getByteTile : zoom : {} x : {} y : {} :: Not Found", zoom, x, y);
 			return null;
 		}
-		byte[] bTile;
 		log.debug("getByteTile : zoom : {} x : {} y : {} :: Found", zoom, x, y);
-		if (t.bTile != null) {
-			bTile = t.bTile;
-		} else {
-			AqmTile tile = tilesMap.get(generateKey(zoom, y, x));
-			bTile = getFileChunk(tile.tileByteIndex);
+		return getFileChunk(tileByteIndex);
+	}
+
+	/**
+	 * Releases the tile indexes and the memory mapping of the AQM file. The map
+	 * can not be used anymore afterwards.
+	 */
+	public void close() {
+		for (int i = 0; i < tileIndexes.length(); i++) {
+			tileIndexes.set(i, null);
 		}
-		return bTile;
+		mappedFile.close();
 	}
 
 	public List<AqmLevel> getLevelList() {
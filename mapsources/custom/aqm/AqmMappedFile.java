@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources.custom.aqm;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only memory mapping of a complete AQM file. As a single
+ * {@link MappedByteBuffer} is limited to 2 GiB the file is mapped in segments
+ * of 1 GiB. All read methods use absolute positions and do not modify the
+ * state of the shared buffers, therefore they can be used concurrently.
+ */
+public class AqmMappedFile {
+
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final MappedByteBuffer[] segments;
+	private final long size;
+	private volatile boolean closed = false;
+
+	public AqmMappedFile(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			size = channel.size();
+			int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+			segments = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+			}
+		}
+		// the mapping stays valid after the channel has been closed
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public byte get(long pos) throws IOException {
+		if (pos < 0 || pos >= size) {
+			throw new EOFException("Position " + pos + " outside of file (size " + size + ")");
+		}
+		return segment(pos).get((int) (pos & SEGMENT_MASK));
+	}
+
+	/**
+	 * Copies <code>len</code> bytes starting at file position <code>pos</code>
+	 * into <code>dst</code>. The range may span multiple segments.
+	 */
+	public void get(long pos, byte[] dst, int off, int len) throws IOException {
+		if (pos < 0 || pos + len > size) {
+			throw new EOFException("Range " + pos + "+" + len + " outside of file (size " + size + ")");
+		}
+		while (len > 0) {
+			ByteBuffer segment = segment(pos).duplicate();
+			int segmentPos = (int) (pos & SEGMENT_MASK);
+			int n = Math.min(len, segment.limit() - segmentPos);
+			segment.position(segmentPos);
+			segment.get(dst, off, n);
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private MappedByteBuffer segment(long pos) throws IOException {
+		MappedByteBuffer segment = segments[(int) (pos >>> SEGMENT_BITS)];
+		if (segment == null || closed) {
+			throw new IOException("AQM file has been closed");
+		}
+		return segment;
+	}
+
+	/**
+	 * Drops the references to the mapped segments. Java offers no way to unmap a
+	 * {@link MappedByteBuffer} explicitly, the mapping is released as soon as the
+	 * buffers have been garbage collected.
+	 */
+	public void close() {
+		closed = true;
+		Arrays.fill(segments, null);
+	}
+
+	public byte[] getBytes(long pos, int len) throws IOException {
+		byte[] data = new byte[len];
+		get(pos, data, 0, len);
+		return data;
+	}
+
+	/**
+	 * Parses the zero terminated decimal number starting at <code>pos</code>.
+	 *
+	 * @return the number of bytes occupied by the number including the
+	 *         terminating zero byte in the upper 32 bits and the number itself in
+	 *         the lower 32 bits
+	 */
+	public long readZeroTerminatedInteger(long pos) throws IOException {
+		long value = 0;
+		int length = 0;
+		while (true) {
+			byte b = get(pos + length);
+			length++;
+			if (b == 0) {
+				break;
+			}
+			if (b < '0' || b > '9' || length > 10) {
+				throw new IOException("Invalid zero terminated number at " + pos);
+			}
+			value = value * 10 + (b - '0');
+		}
+		if (length == 1 || value > Integer.MAX_VALUE) {
+			throw new IOException("Invalid zero terminated number at " + pos);
+		}
+		return ((long) length << 32) | value;
+	}
+
+	/**
+	 * Reads a length prefixed chunk: a zero terminated decimal number followed by
+	 * that number of bytes.
+	 */
+	public byte[] readChunk(long pos) throws IOException {
+		long lengthAndValue = readZeroTerminatedInteger(pos);
+		int length = (int) (lengthAndValue >>> 32);
+		int chunkSize = (int) lengthAndValue;
+		return getBytes(pos + length, chunkSize);
+	}
+}
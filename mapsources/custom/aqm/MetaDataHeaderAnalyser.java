@@ -16,9 +16,12 @@
  ******************************************************************************/
 package mobac.mapsources.custom.aqm;
 
+import mobac.mapsources.TileKeyMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,14 +37,18 @@ public class MetaDataHeaderAnalyser {
 	public static final String AQM_LEVEL_DELIMITER = "@LEVEL";
 	public static final String AQM_END_DELIMITER = "#END";
 	private static final Logger log = LoggerFactory.getLogger(MetaDataHeaderAnalyser.class);
-	private final List<String> tokens;
+	private static final byte[] B_AQM_HEADER = AQM_HEADER.getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] B_AQM_LEVEL = AQM_LEVEL.getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] B_AQM_LEVEL_DELIMITER = AQM_LEVEL_DELIMITER.getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] B_AQM_END_DELIMITER = AQM_END_DELIMITER.getBytes(StandardCharsets.ISO_8859_1);
+	private final MetaDataHeader header;
 	private final List<MetaDataLevel> levelList;
 	private int nbFiles;
 	private long byteArrayStartIndex;
 	private long byteArrayEndIndex;
 
-	public MetaDataHeaderAnalyser(List<String> tokens) {
-		this.tokens = tokens;
+	public MetaDataHeaderAnalyser(MetaDataHeader header) throws IOException {
+		this.header = header;
 		this.levelList = new ArrayList<>();
 		buildLevelList();
 	}
@@ -62,48 +69,89 @@ public class MetaDataHeaderAnalyser {
 		return levelList;
 	}
 
-	private void buildLevelList() {
-		int j = 0;
-		String currentToken;
+	/**
+	 * Walks once over the header tokens. The tile tokens are only counted - their
+	 * position is stored in the {@link MetaDataLevel} so that they can be read
+	 * later by {@link #readTiles(MetaDataLevel, int, TileKeyMap)}.
+	 */
+	private void buildLevelList() throws IOException {
+		MetaDataHeaderTokenizer tokens = header.createTokenizer();
+		if (!tokens.next()) {
+			return;
+		}
+		nbFiles = (int) tokens.tokenToLong();
 		int currentLevelIndex = 0;
-		while (tokens.size() > j) {
-			currentToken = tokens.get(j);
-			if (j == 0) {
-				nbFiles = Integer.parseInt(currentToken);
-				j++;
-			} else if (currentToken.equals(AQM_HEADER)) {
-				byteArrayStartIndex = Long.parseLong(tokens.get(++j));
-				j++;
-			} else if (currentToken.equals(AQM_LEVEL)) {
-				currentToken = tokens.get(++j);
-				levelList.add(new MetaDataLevel(Long.parseLong(currentToken)));
-				j++;
-			} else if (currentToken.equals(AQM_LEVEL_DELIMITER)) {
-				log.trace("{} start at {}", AQM_LEVEL_DELIMITER, j);
-				MetaDataLevel currentLevel = levelList.get(currentLevelIndex);
-				currentToken = tokens.get(++j);
-				currentLevel.byteIndex = Long.parseLong(currentToken);
-				currentToken = tokens.get(++j);
-				while (tokens.size() > j
-						&& (!currentToken.equals(AQM_LEVEL_DELIMITER) && !currentToken.equals(AQM_END_DELIMITER))) {
-					String nextToken = tokens.get(j + 1);
-					log.trace("Tile {} {}", currentToken, nextToken);
-					MetaDataTile currentTile = new MetaDataTile(nextToken, currentToken);
-					currentLevel.addTile(currentTile);
-					j += 2;
-					if (j >= tokens.size()) {
-						return;
+		boolean pending = false;
+		while (pending || tokens.next()) {
+			pending = false;
+			if (tokens.tokenEquals(B_AQM_HEADER)) {
+				if (!tokens.next()) {
+					return;
+				}
+				byteArrayStartIndex = tokens.tokenToLong();
+			} else if (tokens.tokenEquals(B_AQM_LEVEL)) {
+				if (!tokens.next()) {
+					return;
+				}
+				levelList.add(new MetaDataLevel(tokens.tokenToLong()));
+			} else if (tokens.tokenEquals(B_AQM_LEVEL_DELIMITER)) {
+				MetaDataLevel currentLevel = levelList.get(currentLevelIndex++);
+				if (!tokens.next()) {
+					return;
+				}
+				currentLevel.byteIndex = tokens.tokenToLong();
+				currentLevel.tilesStart = tokens.getPosition();
+				int count = 0;
+				while (tokens.next()) {
+					if (tokens.tokenEquals(B_AQM_LEVEL_DELIMITER) || tokens.tokenEquals(B_AQM_END_DELIMITER)) {
+						pending = true;
+						break;
+					}
+					if (!tokens.next()) {
+						break;
 					}
-					currentToken = tokens.get(j);
+					count++;
+				}
+				currentLevel.tileCount = count;
+				log.trace("{} {} with {} tiles", AQM_LEVEL_DELIMITER, currentLevelIndex - 1, count);
+			} else if (tokens.tokenEquals(B_AQM_END_DELIMITER)) {
+				if (!tokens.next()) {
+					return;
 				}
-				currentLevelIndex++;
-			} else if (currentToken.equals(AQM_END_DELIMITER)) {
-				byteArrayEndIndex = Long.parseLong(tokens.get(++j));
-				j++;
-			} else {
-				j++;
+				byteArrayEndIndex = tokens.tokenToLong();
 			}
 		}
+	}
 
+	/**
+	 * Reads the tile tokens of the specified level and puts the file offset of
+	 * each tile (relative to the header end) into <code>index</code>.
+	 *
+	 * @return the number of tiles added to the index
+	 */
+	public int readTiles(MetaDataLevel level, int zoom, TileKeyMap index, long baseOffset) throws IOException {
+		if (level.tilesStart < 0) {
+			return 0;
+		}
+		MetaDataHeaderTokenizer tokens = header.createTokenizer();
+		tokens.setPosition(level.tilesStart);
+		int added = 0;
+		for (int i = 0; i < level.tileCount; i++) {
+			if (!tokens.next()) {
+				break;
+			}
+			long key = tokens.tokenToTileKey(zoom);
+			String invalidName = (key < 0) ? tokens.tokenToString() : null;
+			if (!tokens.next()) {
+				break;
+			}
+			if (invalidName != null) {
+				log.warn("Invalid tile name \"{}\" on level {}", invalidName, zoom);
+				continue;
+			}
+			index.put(key, baseOffset + tokens.tokenToLong());
+			added++;
+		}
+		return added;
 	}
 }
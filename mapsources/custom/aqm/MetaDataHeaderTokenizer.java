@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources.custom.aqm;
+
+import mobac.mapsources.TileKeyMap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the zero byte separated tokens of the AQM header directly from the
+ * memory mapped file. Only the position of the current token is stored, the
+ * token content is evaluated on demand without creating strings.
+ */
+public class MetaDataHeaderTokenizer {
+
+	private final AqmMappedFile file;
+	private final long end;
+	private long pos;
+	private long tokenStart;
+	private long tokenEnd;
+
+	/**
+	 * @param start
+	 *            file position of the first token
+	 * @param end
+	 *            file position after the last token
+	 */
+	MetaDataHeaderTokenizer(AqmMappedFile file, long start, long end) {
+		this.file = file;
+		this.end = end;
+		this.pos = start;
+	}
+
+	/**
+	 * Advances to the next token.
+	 *
+	 * @return <code>false</code> if there are no more tokens
+	 */
+	public boolean next() throws IOException {
+		if (pos > end) {
+			return false;
+		}
+		long p = pos;
+		while (p < end && file.get(p) != 0) {
+			p++;
+		}
+		tokenStart = pos;
+		tokenEnd = p;
+		pos = p + 1;
+		return true;
+	}
+
+	/**
+	 * @return file position of the token following the current token
+	 */
+	public long getPosition() {
+		return pos;
+	}
+
+	public void setPosition(long pos) {
+		this.pos = pos;
+	}
+
+	public boolean tokenEquals(byte[] value) throws IOException {
+		if (tokenEnd - tokenStart != value.length) {
+			return false;
+		}
+		for (int i = 0; i < value.length; i++) {
+			if (file.get(tokenStart + i) != value[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long tokenToLong() throws IOException {
+		if (tokenEnd == tokenStart || tokenEnd - tokenStart > 18) {
+			throw new IOException("Invalid number \"" + tokenToString() + "\" at " + tokenStart);
+		}
+		long value = 0;
+		for (long p = tokenStart; p < tokenEnd; p++) {
+			byte b = file.get(p);
+			if (b < '0' || b > '9') {
+				throw new IOException("Invalid number \"" + tokenToString() + "\" at " + tokenStart);
+			}
+			value = value * 10 + (b - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Parses a tile name token of the form <code>x_y</code>.
+	 *
+	 * @return the packed tile key (see {@link TileKeyMap#key(int, int, int)}) or -1
+	 *         if the token is not a valid tile name
+	 */
+	public long tokenToTileKey(int zoom) throws IOException {
+		long p = tokenStart;
+		int x = 0;
+		int y = 0;
+		for (int i = 0; i < 2; i++) {
+			long start = p;
+			int value = 0;
+			while (p < tokenEnd) {
+				byte b = file.get(p);
+				if (b < '0' || b > '9') {
+					break;
+				}
+				value = value * 10 + (b - '0');
+				if (value > 0xFFFFFFF) {
+					return -1;
+				}
+				p++;
+			}
+			if (p == start) {
+				return -1;
+			}
+			if (i == 0) {
+				x = value;
+				if (p >= tokenEnd || file.get(p) != '_') {
+					return -1;
+				}
+				p++;
+			} else {
+				y = value;
+			}
+		}
+		if (p != tokenEnd) {
+			return -1;
+		}
+		return TileKeyMap.key(zoom, x, y);
+	}
+
+	public String tokenToString() throws IOException {
+		int len = (int) Math.min(tokenEnd - tokenStart, 256);
+		return new String(file.getBytes(tokenStart, len), StandardCharsets.ISO_8859_1);
+	}
+}
@@ -16,29 +16,27 @@
  ******************************************************************************/
 package mobac.mapsources.custom.aqm;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Alpine Quest Map : https://alpinequest.net/ Developer :
  * ph-t@users.sourceforge.net
  */
 public class MetaDataLevel {
 	public final long metaDataByteIndex;
-	private final List<MetaDataTile> tileList;
 	public long byteIndex;
+	/**
+	 * File position of the first tile name token of this level
+	 */
+	long tilesStart;
+	int tileCount;
 
 	MetaDataLevel(long metaDataByteIndex) {
 		this.metaDataByteIndex = metaDataByteIndex;
 		this.byteIndex = -1;
-		this.tileList = new ArrayList<>();
-	}
-
-	public List<MetaDataTile> getTileList() {
-		return tileList;
+		this.tilesStart = -1;
+		this.tileCount = 0;
 	}
 
-	public void addTile(MetaDataTile tile) {
-		tileList.add(tile);
+	public int getTileCount() {
+		return tileCount;
 	}
 }
@@ -6,6 +6,7 @@ import jakarta.xml.bind.Unmarshaller;
 import jakarta.xml.bind.ValidationEventLocator;
 import mobac.exceptions.MapSourceCreateException;
 import mobac.exceptions.MapSourceInitializationException;
+import mobac.mapsources.AbstractMultiLayerMapSource;
 import mobac.mapsources.MapSourcesManager;
 import mobac.mapsources.custom.CustomLocalAqmMapSource;
 import mobac.mapsources.custom.CustomLocalTileFilesMapSource;
@@ -266,6 +267,7 @@ public class CustomMapSourceLoader {
 		}
 
 		((ReloadableMapSource<MapSource>) mapSource).applyChangesFrom(updatedMapSource);
+		AbstractMultiLayerMapSource.releaseLayerImages(mapSource);
 		log.debug("Map source reloaded: \"{}\"", loaderInfo.getSourceFile());
 
 		return true;
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.program;
+
+import mobac.program.atlascreators.tileprovider.DownloadedTileProvider;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class StreamingTileProviderTest {
+
+	@Test
+	public void parsesTileFileNames() {
+		assertEquals(StreamingTileProvider.key(0, 1, 2), StreamingTileProvider.parseKey("l0x1y2"));
+		assertEquals(StreamingTileProvider.key(63, 123456789, 987654321 & 0x1FFFFFFF),
+				StreamingTileProvider.parseKey("l63x123456789y" + (987654321 & 0x1FFFFFFF)));
+		String name = String.format(DownloadedTileProvider.TILE_FILENAME_PATTERN, 2, 4711, 815);
+		assertEquals(StreamingTileProvider.key(2, 4711, 815), StreamingTileProvider.parseKey(name));
+	}
+
+	@Test
+	public void distinguishesLayersAndCoordinates() {
+		long key = StreamingTileProvider.key(0, 1, 2);
+		assertNotEquals(key, StreamingTileProvider.key(1, 1, 2));
+		assertNotEquals(key, StreamingTileProvider.key(0, 2, 1));
+		assertNotEquals(StreamingTileProvider.key(0, (1 << 29) - 1, 0), StreamingTileProvider.key(1, 0, 0));
+	}
+
+	@Test
+	public void rejectsOtherFileNames() {
+		String[] names = {"", "l", "l0x1y", "x1y2", "l0y1x2", "l0x1y2.png", "l64x1y2", "l0x-1y2", "l0x1234567890y1",
+				"L0x1y2", "l0x1y2z"};
+		for (String name : names) {
+			assertEquals(-1, StreamingTileProvider.parseKey(name), name);
+		}
+	}
+}
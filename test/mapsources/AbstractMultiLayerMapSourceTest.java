@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AbstractMultiLayerMapSourceTest {
+
+	@Test
+	public void blendsSpecialCases() {
+		int d = 0xFF204060;
+		assertEquals(d, AbstractMultiLayerMapSource.blendPixel(d, 0x00FFFFFF, 255));
+		assertEquals(d, AbstractMultiLayerMapSource.blendPixel(d, 0xFFFFFFFF, 0));
+		assertEquals(0xFF123456, AbstractMultiLayerMapSource.blendPixel(d, 0xFF123456, 255));
+		assertEquals(0xFF808080, AbstractMultiLayerMapSource.blendPixel(0xFF000000, 0xFFFFFFFF, 128));
+		assertEquals(0x80FF0000, AbstractMultiLayerMapSource.blendPixel(0x00000000, 0x80FF0000, 255));
+		assertEquals(0, AbstractMultiLayerMapSource.blendPixel(0, 0x01FFFFFF, 1));
+	}
+
+	/**
+	 * Compares the integer arithmetic with the exact Porter-Duff source over
+	 * formula for non-premultiplied colors.
+	 */
+	@Test
+	public void blendsLikeSourceOver() {
+		Random random = new Random(17);
+		for (int i = 0; i < 100000; i++) {
+			int d = random.nextInt();
+			int s = random.nextInt();
+			int alpha = random.nextInt(256);
+			if (i % 4 == 0) {
+				d |= 0xFF000000;
+			}
+			double sa = (s >>> 24) / 255.0 * alpha / 255.0;
+			double da = (d >>> 24) / 255.0 * (1 - sa);
+			double oa = sa + da;
+			int actual = AbstractMultiLayerMapSource.blendPixel(d, s, alpha);
+			String message = String.format("d=%08X s=%08X alpha=%d", d, s, alpha);
+			assertClose(oa * 255, actual >>> 24, message, 1);
+			if (oa * 255 >= 1) {
+				// the alpha weights are rounded to 1/255, the resulting color error grows
+				// with decreasing output alpha
+				double tolerance = 1 + 1 / oa;
+				for (int shift = 0; shift < 24; shift += 8) {
+					double expected = (((s >> shift) & 0xFF) * sa + ((d >> shift) & 0xFF) * da) / oa;
+					assertClose(expected, (actual >> shift) & 0xFF, message, tolerance);
+				}
+			}
+		}
+	}
+
+	private static void assertClose(double expected, int actual, String message, double tolerance) {
+		assertTrue(Math.abs(expected - actual) <= tolerance,
+				message + ": expected " + expected + " but was " + actual);
+	}
+}
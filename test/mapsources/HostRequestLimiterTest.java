@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import mobac.program.model.Settings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HostRequestLimiterTest {
+
+	private static final AtomicInteger HOST_NUMBER = new AtomicInteger();
+	private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private int downloadThreadCount;
+
+	@BeforeEach
+	public void setDownloadThreadCount() {
+		downloadThreadCount = Settings.getInstance().downloadThreadCount;
+		Settings.getInstance().downloadThreadCount = 8;
+	}
+
+	@AfterEach
+	public void restoreDownloadThreadCount() {
+		Settings.getInstance().downloadThreadCount = downloadThreadCount;
+	}
+
+	@Test
+	public void startsWithDownloadThreadCount() throws Exception {
+		assertEquals(8, newLimiter().getLimit());
+	}
+
+	@Test
+	public void halvesLimitOncePerRoundTripOnOverload() throws Exception {
+		HostRequestLimiter limiter = newLimiter();
+		request(limiter, LATENCY, 429, 0);
+		assertEquals(4, limiter.getLimit());
+		// sent before the server has reported the overload
+		request(limiter, LATENCY, 503, 0);
+		assertEquals(4, limiter.getLimit());
+		Thread.sleep(150);
+		request(limiter, LATENCY, 503, 0);
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void reducesLimitOnServerErrors() throws Exception {
+		HostRequestLimiter limiter = newLimiter();
+		request(limiter, LATENCY, 500, -1);
+		assertEquals(7, limiter.getLimit());
+		Thread.sleep(150);
+		request(limiter, LATENCY, -1, -1);
+		assertEquals(6, limiter.getLimit());
+		// a missing tile is a regular response
+		request(limiter, LATENCY, 404, -1);
+		assertTrue(limiter.getLimit() >= 6);
+	}
+
+	@Test
+	public void increasesLimitUpToMaximum() throws Exception {
+		HostRequestLimiter limiter = newLimiter();
+		request(limiter, LATENCY, 429, 0);
+		assertEquals(4, limiter.getLimit());
+		// each response increases the limit by 1 / limit - one per round trip
+		for (int i = 0; i < 5; i++) {
+			request(limiter, LATENCY, 200, -1);
+		}
+		assertEquals(5, limiter.getLimit());
+		for (int i = 0; i < 100; i++) {
+			request(limiter, LATENCY, 200, -1);
+		}
+		assertEquals(8, limiter.getLimit());
+	}
+
+	@Test
+	public void reducesLimitOnIncreasingLatency() throws Exception {
+		HostRequestLimiter limiter = newLimiter();
+		request(limiter, LATENCY, 200, -1);
+		for (int i = 0; i < 10; i++) {
+			request(limiter, 10 * LATENCY, 200, -1);
+		}
+		assertTrue(limiter.getLimit() < 8, limiter.toString());
+	}
+
+	@Test
+	public void blocksRequestsUntilRetryAfter() throws Exception {
+		HostRequestLimiter limiter = newLimiter();
+		request(limiter, LATENCY, 429, 300);
+		long start = System.nanoTime();
+		limiter.acquire();
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		limiter.release(LATENCY, 200, -1);
+		assertTrue(waited >= 250, "waited " + waited + " ms");
+	}
+
+	@Test
+	public void parsesRetryAfter() {
+		assertEquals(120000, HostRequestLimiter.parseRetryAfter(" 120 "));
+		assertEquals(0, HostRequestLimiter.parseRetryAfter("-5"));
+		assertEquals(-1, HostRequestLimiter.parseRetryAfter(null));
+		assertEquals(-1, HostRequestLimiter.parseRetryAfter("soon"));
+		String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now().plusMinutes(1));
+		long delay = HostRequestLimiter.parseRetryAfter(date);
+		assertTrue(delay > 50000 && delay <= 60000, "delay " + delay);
+	}
+
+	private static HostRequestLimiter newLimiter() throws MalformedURLException {
+		return HostRequestLimiter.forHost(new URL("http://host" + HOST_NUMBER.incrementAndGet() + ".invalid/"));
+	}
+
+	private static void request(HostRequestLimiter limiter, long latency, int responseCode, long retryAfter)
+			throws InterruptedException {
+		limiter.acquire();
+		limiter.release(latency, responseCode, retryAfter);
+	}
+}
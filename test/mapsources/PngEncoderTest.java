@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PngEncoderTest {
+
+	/**
+	 * Offset of the color type in the IHDR chunk: signature, chunk length and
+	 * type, width, height and bit depth
+	 */
+	private static final int COLOR_TYPE_OFFSET = 8 + 8 + 8 + 1;
+
+	@Test
+	public void encodesOpaqueImageAsRgb() throws IOException {
+		int[] argb = new int[256 * 256];
+		for (int y = 0; y < 256; y++) {
+			for (int x = 0; x < 256; x++) {
+				argb[y * 256 + x] = 0xFF000000 | (x << 16) | (y << 8) | ((x * y) & 0xFF);
+			}
+		}
+		byte[] png = new PngEncoder(4).encode(argb, 256, 256);
+		assertEquals(2, png[COLOR_TYPE_OFFSET]);
+		assertArrayEquals(argb, decode(png, 256, 256));
+	}
+
+	@Test
+	public void encodesTransparentImageAsRgba() throws IOException {
+		int[] argb = new int[16 * 8];
+		for (int i = 0; i < argb.length; i++) {
+			argb[i] = ((i * 2) << 24) | (i << 16) | 0x80FF;
+		}
+		argb[0] = 0;
+		byte[] png = new PngEncoder(9).encode(argb, 16, 8);
+		assertEquals(6, png[COLOR_TYPE_OFFSET]);
+		assertArrayEquals(argb, decode(png, 16, 8));
+	}
+
+	/**
+	 * Random pixels can not be compressed, the output buffer has to grow beyond
+	 * its initial size. The buffers are reused for the following smaller image.
+	 */
+	@Test
+	public void encodesIncompressibleImagesWithReusedBuffers() throws IOException {
+		Random random = new Random(42);
+		PngEncoder encoder = new PngEncoder(1);
+		int[] noise = new int[300 * 200];
+		for (int i = 0; i < noise.length; i++) {
+			noise[i] = random.nextInt();
+		}
+		assertArrayEquals(noise, decode(encoder.encode(noise, 300, 200), 300, 200));
+		int[] small = {0xFF102030, 0xFF405060, 0xFF708090, 0xFFA0B0C0};
+		assertArrayEquals(small, decode(encoder.encode(small, 2, 2), 2, 2));
+	}
+
+	@Test
+	public void clampsCompressionLevel() {
+		assertEquals(0, new PngEncoder(-1).getCompressionLevel());
+		assertEquals(9, new PngEncoder(12).getCompressionLevel());
+	}
+
+	private static int[] decode(byte[] png, int width, int height) throws IOException {
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+		assertTrue(image != null, "valid PNG");
+		assertEquals(width, image.getWidth());
+		assertEquals(height, image.getHeight());
+		return image.getRGB(0, 0, width, height, null, 0, width);
+	}
+}
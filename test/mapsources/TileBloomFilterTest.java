@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TileBloomFilterTest {
+
+	@Test
+	public void containsAllAddedTiles() {
+		TileBloomFilter filter = new TileBloomFilter(100000);
+		for (int x = 0; x < 400; x++) {
+			for (int y = 0; y < 250; y++) {
+				filter.add(14, 8000 + x, 5000 + y);
+			}
+		}
+		for (int x = 0; x < 400; x++) {
+			for (int y = 0; y < 250; y++) {
+				assertTrue(filter.mightContain(14, 8000 + x, 5000 + y));
+			}
+		}
+	}
+
+	/**
+	 * The neighbor tiles of the added area and the same area on other zoom levels
+	 * are the typical queries for missing tiles. About 1% false positives are
+	 * expected, 2% are accepted.
+	 */
+	@Test
+	public void reportsFewFalsePositives() {
+		TileBloomFilter filter = new TileBloomFilter(100000);
+		for (int x = 0; x < 400; x++) {
+			for (int y = 0; y < 250; y++) {
+				filter.add(14, 8000 + x, 5000 + y);
+			}
+		}
+		int falsePositives = 0;
+		int queries = 0;
+		for (int x = 0; x < 400; x++) {
+			for (int y = 0; y < 250; y++) {
+				if (filter.mightContain(14, 8400 + x, 5000 + y)) {
+					falsePositives++;
+				}
+				if (filter.mightContain(15, 8000 + x, 5000 + y)) {
+					falsePositives++;
+				}
+				queries += 2;
+			}
+		}
+		assertTrue(falsePositives < queries / 50, falsePositives + " false positives of " + queries);
+	}
+
+	@Test
+	public void emptyFilterContainsNothing() {
+		TileBloomFilter filter = new TileBloomFilter(0);
+		assertEquals(8, filter.getSize());
+		assertFalse(filter.mightContain(0, 0, 0));
+		filter.add(0, 0, 0);
+		assertTrue(filter.mightContain(0, 0, 0));
+	}
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TileKeyMapTest {
+
+	@Test
+	public void packsTileCoordinates() {
+		long key = TileKeyMap.key(22, (1 << 22) - 1, 12345);
+		assertEquals(22, TileKeyMap.zoom(key));
+		assertEquals((1 << 22) - 1, TileKeyMap.x(key));
+		assertEquals(12345, TileKeyMap.y(key));
+		assertTrue(TileKeyMap.key(0, 0, 0) >= 0);
+	}
+
+	@Test
+	public void putGetAndResize() {
+		TileKeyMap map = new TileKeyMap(4);
+		for (int i = 0; i < 1000; i++) {
+			map.put(TileKeyMap.key(10, i, i / 3), i);
+		}
+		assertEquals(1000, map.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, map.get(TileKeyMap.key(10, i, i / 3), -1));
+		}
+		assertEquals(-1, map.get(TileKeyMap.key(10, 1000, 0), -1));
+		map.put(TileKeyMap.key(10, 5, 1), 42);
+		assertEquals(1000, map.size());
+		assertEquals(42, map.get(TileKeyMap.key(10, 5, 1), -1));
+		assertFalse(map.putIfAbsent(TileKeyMap.key(10, 5, 1), 43));
+		assertEquals(42, map.get(TileKeyMap.key(10, 5, 1), -1));
+	}
+
+	/**
+	 * Removing with backward shift must keep every other key of the probe
+	 * sequences reachable. The map is compared with a {@link HashMap} while keys
+	 * of a small, dense area are added and removed in random order so that long
+	 * probe sequences occur.
+	 */
+	@Test
+	public void removeKeepsProbeSequencesIntact() {
+		Random random = new Random(4711);
+		TileKeyMap map = new TileKeyMap(64);
+		Map<Long, Long> expected = new HashMap<>();
+		for (int i = 0; i < 200000; i++) {
+			long key = TileKeyMap.key(12, random.nextInt(64), random.nextInt(64));
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key) != null, map.remove(key));
+			} else {
+				map.put(key, i);
+				expected.put(key, (long) i);
+			}
+			if (i % 1000 == 0) {
+				assertContainsExactly(expected, map);
+			}
+		}
+		assertContainsExactly(expected, map);
+		for (Long key : expected.keySet()) {
+			assertTrue(map.remove(key));
+		}
+		assertEquals(0, map.size());
+		assertFalse(map.remove(TileKeyMap.key(12, 0, 0)));
+	}
+
+	@Test
+	public void keySetStoresNoValues() {
+		TileKeyMap set = TileKeyMap.keySet(10);
+		set.put(TileKeyMap.key(3, 1, 2), 99);
+		assertTrue(set.containsKey(TileKeyMap.key(3, 1, 2)));
+		assertEquals(0, set.get(TileKeyMap.key(3, 1, 2), -1));
+		assertEquals(-1, set.get(TileKeyMap.key(3, 2, 1), -1));
+		assertTrue(set.remove(TileKeyMap.key(3, 1, 2)));
+		assertEquals(0, set.size());
+	}
+
+	private static void assertContainsExactly(Map<Long, Long> expected, TileKeyMap map) {
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().longValue(), map.get(entry.getKey(), -1));
+		}
+		long[] keys = map.keys();
+		long[] expectedKeys = expected.keySet().stream().mapToLong(Long::longValue).toArray();
+		Arrays.sort(keys);
+		Arrays.sort(expectedKeys);
+		assertArrayEquals(expectedKeys, keys);
+	}
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) MOBAC developers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package mobac.mapsources.custom;
+
+import mobac.mapsources.TileKeyMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ZipTileArchiveScanTest {
+
+	private File dir;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		dir = Files.createTempDirectory("mobac-zipscan").toFile();
+	}
+
+	@AfterEach
+	public void deleteDirectory() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void parsesTileNames() {
+		CustomMapSourceType xy = CustomMapSourceType.DIR_ZOOM_X_Y;
+		assertEquals(TileKeyMap.key(3, 1, 2), ZipTileArchiveScan.parseTileKey("3/1/2.png", ".png", xy));
+		assertEquals(TileKeyMap.key(3, 2, 1),
+				ZipTileArchiveScan.parseTileKey("3/1/2.png", ".png", CustomMapSourceType.DIR_ZOOM_Y_X));
+		assertEquals(TileKeyMap.key(2, 1, 2), ZipTileArchiveScan.parseTileKey("21.jpg", ".jpg",
+				CustomMapSourceType.QUADKEY));
+		assertEquals(-1, ZipTileArchiveScan.parseTileKey("3/1/2.jpg", ".png", xy));
+		assertEquals(-1, ZipTileArchiveScan.parseTileKey("3/1.png", ".png", xy));
+		assertEquals(-1, ZipTileArchiveScan.parseTileKey("30/1/2.png", ".png", xy));
+		assertEquals(-1, ZipTileArchiveScan.parseTileKey("3/a/2.png", ".png", xy));
+	}
+
+	@Test
+	public void scansTilesAndBounds() throws IOException {
+		File archive = createZip("tiles.zip", "readme.txt", "3/1/2.png", "3/4/5.png", "5/7/1.png", "5/7/x.png");
+		try (ZipFile zip = new ZipFile(archive)) {
+			ZipTileArchiveScan scan = ZipTileArchiveScan.scan(zip, CustomMapSourceType.DIR_ZOOM_X_Y);
+			assertEquals(".png", scan.getFileSuffix());
+			assertEquals(3, scan.getTileCount());
+			assertEquals(3, scan.getMinZoom());
+			assertEquals(5, scan.getMaxZoom());
+			assertArrayEquals(new int[]{1, 2, 4, 5}, scan.getZoomBounds(3));
+			assertArrayEquals(new int[]{7, 1, 7, 1}, scan.getZoomBounds(5));
+			assertEquals(null, scan.getZoomBounds(4));
+		}
+	}
+
+	/**
+	 * The second call has to use the index file: it is passed a zip file with
+	 * different entries but the same archive file.
+	 */
+	@Test
+	public void loadsScanResultFromIndexFile() throws IOException {
+		File archive = createZip("tiles.zip", "3/1/2.png", "3/4/5.png");
+		File other = createZip("other.zip", "4/1/1.png", "4/1/2.png", "4/1/3.png");
+		long[] expected;
+		try (ZipFile zip = new ZipFile(archive)) {
+			expected = sorted(ZipTileArchiveScan.loadOrScan(archive, zip, CustomMapSourceType.DIR_ZOOM_X_Y));
+		}
+		assertTrue(ZipTileArchiveScan.getCacheFile(archive).isFile());
+		try (ZipFile zip = new ZipFile(other)) {
+			assertArrayEquals(expected, sorted(ZipTileArchiveScan.loadOrScan(archive, zip,
+					CustomMapSourceType.DIR_ZOOM_X_Y)));
+			// a different source type does not match the index file
+			assertEquals(0, ZipTileArchiveScan.loadOrScan(archive, zip, CustomMapSourceType.QUADKEY).getTileCount());
+		}
+		// both archives and the index file, no temporary file left behind
+		assertEquals(3, dir.list().length);
+	}
+
+	@Test
+	public void rescansOnInvalidTileCount() throws IOException {
+		File archive = createZip("tiles.zip", "3/1/2.png", "3/4/5.png");
+		try (ZipFile zip = new ZipFile(archive)) {
+			ZipTileArchiveScan.loadOrScan(archive, zip, CustomMapSourceType.DIR_ZOOM_X_Y);
+			for (int count : new int[]{-1, 3, Integer.MAX_VALUE}) {
+				writeTileCount(archive, count);
+				ZipTileArchiveScan scan = ZipTileArchiveScan.loadOrScan(archive, zip,
+						CustomMapSourceType.DIR_ZOOM_X_Y);
+				assertEquals(2, scan.getTileCount(), "tile count " + count);
+			}
+		}
+	}
+
+	@Test
+	public void rescansOnTruncatedIndexFile() throws IOException {
+		File archive = createZip("tiles.zip", "3/1/2.png", "3/4/5.png");
+		try (ZipFile zip = new ZipFile(archive)) {
+			ZipTileArchiveScan.loadOrScan(archive, zip, CustomMapSourceType.DIR_ZOOM_X_Y);
+			File cacheFile = ZipTileArchiveScan.getCacheFile(archive);
+			try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+				file.setLength(file.length() - 1);
+			}
+			assertEquals(2, ZipTileArchiveScan.loadOrScan(archive, zip, CustomMapSourceType.DIR_ZOOM_X_Y)
+					.getTileCount());
+		}
+	}
+
+	private File createZip(String name, String... entries) throws IOException {
+		File file = new File(dir, name);
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+			for (String entry : entries) {
+				out.putNextEntry(new ZipEntry(entry));
+				out.write(1);
+				out.closeEntry();
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Overwrites the tile count of the index file: it follows the magic number,
+	 * size and modification time of the archive, the source type and the suffix.
+	 */
+	private static void writeTileCount(File archive, int count) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(ZipTileArchiveScan.getCacheFile(archive), "rw")) {
+			file.seek(20);
+			file.readUTF();
+			file.readUTF();
+			file.writeInt(count);
+		}
+	}
+
+	private static long[] sorted(ZipTileArchiveScan scan) {
+		long[] keys = scan.getTileKeys().clone();
+		Arrays.sort(keys);
+		return keys;
+	}
+}